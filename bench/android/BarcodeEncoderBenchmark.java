@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and render time of generate (without PNG compression) for typical pick-ticket and pairing codes
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main BarcodeEncoderBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BarcodeEncoderBenchmark {
+
+    @Param({"qr", "qrLarge", "code128", "ean13", "dataMatrix"})
+    public String code;
+
+    private BarcodeFormat format;
+    private String text;
+    private int width;
+    private int height;
+    private BarcodeEncoder encoder;
+    private BitMatrix modules;
+
+    @Setup(Level.Trial)
+    public void setUp() throws WriterException {
+        switch (code) {
+            case "qr":
+                set(BarcodeFormat.QR_CODE, "https://example.com/pair?token=8f14e45fceea167a5a36dedd4bea2543", 512, 512);
+                break;
+            case "qrLarge":
+                StringBuilder large = new StringBuilder();
+                while (large.length() < 1200) {
+                    large.append("https://example.com/pair?token=").append(large.length()).append('&');
+                }
+                set(BarcodeFormat.QR_CODE, large.toString(), 1024, 1024);
+                break;
+            case "code128":
+                set(BarcodeFormat.CODE_128, "PICK-2023-000123-A", 600, 200);
+                break;
+            case "ean13":
+                set(BarcodeFormat.EAN_13, "4901234567894", 600, 300);
+                break;
+            default:
+                set(BarcodeFormat.DATA_MATRIX, "(01)09501101530003(17)251231(10)AB-123", 400, 400);
+                break;
+        }
+        encoder = new BarcodeEncoder();
+        modules = encoder.encode(text, format, -1, "M");
+    }
+
+    private void set(BarcodeFormat format, String text, int width, int height) {
+        this.format = format;
+        this.text = text;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Benchmark
+    public BitMatrix encode() throws WriterException {
+        return encoder.encode(text, format, -1, "M");
+    }
+
+    @Benchmark
+    public int[] render() {
+        return encoder.render(modules, width, height);
+    }
+}
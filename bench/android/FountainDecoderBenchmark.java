@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to parse and assemble a whole message on the receiver side (receive.enabled)
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main FountainDecoderBenchmark
+ * </pre>
+ *
+ * The chunk texts of a random message are produced by {@link FountainEncoder} before the
+ * measurement, dropping {@code loss} percent of them (missed frames). One operation parses and
+ * assembles chunks until the message is complete; divide the message size by the score for the
+ * sustained rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FountainDecoderBenchmark {
+
+    @Param({"64", "256"})
+    public int kilobytes;
+
+    @Param({"600"})
+    public int blockSize;
+
+    @Param({"0", "30"})
+    public int loss;
+
+    private int length;
+    private List<String> texts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        byte[] message = new byte[kilobytes * 1024];
+        random.nextBytes(message);
+        length = message.length;
+        FountainEncoder encoder = new FountainEncoder(message, blockSize, random.nextInt());
+        texts = new ArrayList<>();
+        while (texts.size() < encoder.getBlockCount() * 4) {
+            String text = encoder.next().toText();
+            if (random.nextInt(100) >= loss) {
+                texts.add(text);
+            }
+        }
+    }
+
+    @Benchmark
+    public FountainDecoder assemble() {
+        FountainDecoder decoder = new FountainDecoder(length);
+        for (String text : texts) {
+            decoder.add(FountainChunk.parse(text));
+            if (decoder.isComplete()) {
+                break;
+            }
+        }
+        if (!decoder.isComplete()) {
+            throw new IllegalStateException("incomplete after " + texts.size() + " chunks");
+        }
+        return decoder;
+    }
+}
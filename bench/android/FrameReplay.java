@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays frames recorded by {@link FrameRecorder}
+ *
+ * Reads the recording through a memory map and feeds each frame, with the detection area recorded
+ * with it, to a {@link FramePipeline} configured like the live scanner (gates, fusion, preprocessing),
+ * followed by a JVM {@link Detector} in place of ML Kit. Not shipped with the plugin.
+ */
+public class FrameReplay implements Closeable {
+
+    /**
+     * Detector run on the frames let through by the pipeline
+     */
+    public interface Detector {
+        /**
+         * @param nv21     frame (luminance and neutral chroma)
+         * @param metadata frame metadata
+         * @param roi      {left, top, right, bottom} detection area in frame coordinates
+         * @return true if a code was found
+         */
+        boolean detect(byte[] nv21, FrameMetadata metadata, int[] roi);
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final int version;
+    private final ByteBuffer[] planes = new ByteBuffer[FrameMetadata.PLANE_COUNT];
+    private final int[] roi = new int[4];
+    private boolean hasRoi;
+    private FrameMetadata metadata;
+
+    public FrameReplay(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < FrameRecorder.FILE_HEADER_SIZE || data.getInt() != FrameRecorder.MAGIC) {
+            throw new IOException("not a frame recording: " + file);
+        }
+        version = data.getInt();
+        if (version < 1 || version > FrameRecorder.VERSION) {
+            throw new IOException("unsupported recording version " + version);
+        }
+    }
+
+    /**
+     * Advance to the next frame
+     *
+     * @return false at the end of the recording (a truncated last frame is ignored)
+     */
+    public boolean next() {
+        int headerSize = FrameRecorder.FRAME_HEADER_SIZE - (version < 2 ? 4 * 4 : 0);
+        if (data.remaining() < 4 + headerSize) {
+            return false;
+        }
+        int start = data.position();
+        int recordSize = data.getInt();
+        if (data.remaining() < recordSize) {
+            data.position(start);
+            return false;
+        }
+        FrameMetadata.Builder builder = new FrameMetadata.Builder()
+                .setTimestampNanos(data.getLong())
+                .setWidth(data.getInt())
+                .setHeight(data.getInt())
+                .setRotation(data.getInt());
+        // version 1 は検出エリアを持たない  version 1 recordings have no detection area
+        hasRoi = version >= 2;
+        if (hasRoi) {
+            for (int i = 0; i < 4; i ++) {
+                roi[i] = data.getInt();
+            }
+        }
+        int[] lengths = new int[FrameMetadata.PLANE_COUNT];
+        for (int i = 0; i < FrameMetadata.PLANE_COUNT; i ++) {
+            builder.setPlaneStrides(i, data.getInt(), data.getInt());
+            lengths[i] = data.getInt();
+        }
+        metadata = builder.build();
+        for (int i = 0; i < FrameMetadata.PLANE_COUNT; i ++) {
+            ByteBuffer plane = data.slice();
+            plane.limit(lengths[i]);
+            planes[i] = plane.asReadOnlyBuffer();
+            data.position(data.position() + lengths[i]);
+        }
+        data.position(start + 4 + recordSize);
+        return true;
+    }
+
+    /**
+     * Rewind to the first frame
+     */
+    public void rewind() {
+        data.position(FrameRecorder.FILE_HEADER_SIZE);
+    }
+
+    public FrameMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return recorded detection area of the current frame, or null for version 1 recordings
+     */
+    public int[] getRoi() {
+        return hasRoi ? roi : null;
+    }
+
+    /**
+     * @return Y, U, V planes of the current frame (views of the mapped file)
+     */
+    public ByteBuffer[] getPlanes() {
+        return planes;
+    }
+
+    /**
+     * Run the current frame through the pipeline and the detector, like the live analyzer: the
+     * preprocessed retry is detected only when the plain pass found nothing
+     *
+     * @param detector detector, or null to run the pipeline only
+     * @return true if a code was found
+     */
+    public boolean process(FramePipeline pipeline, Detector detector) {
+        pipeline.setFrameRoi(getRoi());
+        if (!pipeline.process(metadata, metadata.getTimestampNanos(), planes) || detector == null) {
+            return false;
+        }
+        if (detector.detect(pipeline.getNv21(), pipeline.getMetadata(), pipeline.getRoi())) {
+            return true;
+        }
+        byte[] retry = pipeline.retry();
+        return retry != null && detector.detect(retry, pipeline.getMetadata(), pipeline.getRoi());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame latency of the stages in front of the detector on a recording made with debug.record
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main FrameReplayBenchmark -p recording=scanner-frames-xxxx.mbsf
+ * </pre>
+ *
+ * stages=convert runs the conversion only; stages=live adds the sharpness gate, low-light fusion and
+ * the preprocessed retry with the plugin's default options. No detector runs: every frame let through
+ * is treated as empty, so the retry runs as often as it would while no code is decoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameReplayBenchmark {
+
+    @Param({"scanner-frames.mbsf"})
+    public String recording;
+
+    @Param({"convert", "live"})
+    public String stages;
+
+    /** Finds nothing, so the retry is considered on every accepted frame */
+    private static final FrameReplay.Detector EMPTY = (nv21, metadata, roi) -> false;
+
+    private FrameReplay replay;
+    private FramePipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        replay = new FrameReplay(new File(recording));
+        if (!replay.next()) {
+            throw new IOException("no frames in " + recording);
+        }
+        replay.rewind();
+        pipeline = new FramePipeline();
+        if ("live".equals(stages)) {
+            pipeline.setQualityGate(new FrameQualityGate(0.35, 10));
+            pipeline.setLowLightFusion(new LowLightFusion());
+            pipeline.setPreprocessor(new LuminancePreprocessor(new String[] {
+                    LuminancePreprocessor.INVERT, LuminancePreprocessor.CLAHE}, 3, 150));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        replay.close();
+    }
+
+    /**
+     * One recorded frame per operation, looping over the recording
+     */
+    @Benchmark
+    public byte[] frame() {
+        if (!replay.next()) {
+            replay.rewind();
+            replay.next();
+        }
+        replay.process(pipeline, EMPTY);
+        return pipeline.getNv21();
+    }
+}
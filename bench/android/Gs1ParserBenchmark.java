@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per label of {@link Gs1Parser#parse} (validation only) and {@link Gs1Parser#parseToJson}
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main Gs1ParserBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Gs1ParserBenchmark {
+
+    @Param({
+            // GS1-128: 固定長のみ  fixed-length AIs only
+            "]C1" + "0109501101530003" + "17251231" + "10AB-123",
+            // DataMatrix: 先頭と途中の FNC1  FNC1 at the start and in the middle
+            "]d2\u001d0109501101530003" + "10ABC123\u001d" + "21SN0001",
+            // 可変長と4桁の AI  variable-length and 4-digit AIs
+            "4220392\u001d" + "7003231231\u001d" + "8008231231120000"})
+    public String label;
+
+    private byte[] data;
+    private final Gs1Parser.Handler counter = (ai, aiLength, bytes, offset, length) -> { };
+
+    @Setup
+    public void setUp() {
+        data = label.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return Gs1Parser.parse(data, counter);
+    }
+
+    @Benchmark
+    public JSONObject parseToJson() {
+        return Gs1Parser.parseToJson(data);
+    }
+}
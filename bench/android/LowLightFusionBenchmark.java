@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per frame of fusion.* on synthetic dark, noisy and shaking frames
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main LowLightFusionBenchmark
+ * </pre>
+ *
+ * The detection area is the center half of each side. A ring of pre-rendered frames is replayed so
+ * rendering is not measured; restoring the fused frame (one copy) is done outside the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LowLightFusionBenchmark {
+
+    private static final int RENDERED_FRAMES = 16;
+
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({"4"})
+    public int frames;
+
+    @Param({"mean", "median"})
+    public String mode;
+
+    private byte[][] rendered;
+    private byte[] frame;
+    private int width;
+    private int[] roi;
+    private int next = 0;
+    private LowLightFusion fusion;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        roi = new int[] {width / 4, height / 4, width * 3 / 4, height * 3 / 4};
+        rendered = new byte[RENDERED_FRAMES][];
+        Random random = new Random(1);
+        for (int i = 0; i < RENDERED_FRAMES; i ++) {
+            rendered[i] = render(width, height, random.nextInt(5) - 2, random.nextInt(5) - 2, random);
+        }
+        frame = new byte[width * height];
+        fusion = new LowLightFusion(frames, 60, "median".equals(mode));
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        System.arraycopy(rendered[next], 0, frame, 0, frame.length);
+        next = (next + 1) % RENDERED_FRAMES;
+    }
+
+    @Benchmark
+    public boolean fuse() {
+        return fusion.fuse(frame, width, roi);
+    }
+
+    /**
+     * Dark random modules (20 / 50) like a 2D code, shifted by the hand shake, with Gaussian noise
+     */
+    private static byte[] render(int width, int height, int dx, int dy, Random random) {
+        byte[] frame = new byte[width * height];
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                double value = pattern(x + dx, y + dy) + random.nextGaussian() * 12;
+                frame[y * width + x] = (byte) Math.max(0, Math.min(255, Math.round(value)));
+            }
+        }
+        return frame;
+    }
+
+    private static int pattern(int x, int y) {
+        int hash = (x / 6) * 73856093 ^ (y / 6) * 19349663;
+        return ((hash >>> 13) & 1) == 0 ? 20 : 50;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-stage cost of preprocess.passes at common analysis resolutions
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main LuminancePreprocessorBenchmark
+ * </pre>
+ *
+ * Runs one stage on the center detection area (half of each side) of a synthetic low-contrast frame,
+ * including the frame copy a retry pays. {@link #shouldRetry()} is the cost of deciding to skip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LuminancePreprocessorBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({LuminancePreprocessor.INVERT, LuminancePreprocessor.CLAHE, LuminancePreprocessor.BINARIZE})
+    public String stage;
+
+    private LuminancePreprocessor preprocessor;
+    private byte[] frame;
+    private int width;
+    private int height;
+    private int[] roi;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        frame = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                // 低コントラストのモジュール (110 / 140)  low-contrast modules
+                int hash = (x / 6) * 73856093 ^ (y / 6) * 19349663;
+                frame[y * width + x] = (byte) (((hash >>> 13) & 1) == 0 ? 110 : 140);
+            }
+        }
+        roi = new int[] {width / 4, height / 4, width * 3 / 4, height * 3 / 4};
+        preprocessor = new LuminancePreprocessor(new String[] {stage}, 1, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public byte[] prepare() {
+        return preprocessor.prepare(frame, width, height, roi);
+    }
+
+    @Benchmark
+    public boolean shouldRetry() {
+        return preprocessor.shouldRetry(frame, width, roi);
+    }
+}
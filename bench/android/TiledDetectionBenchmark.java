@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector latency of the full frame against tiling.grid tiles on a recording made with debug.record
+ * <pre>
+ * java -cp ... org.openjdk.jmh.Main TiledDetectionBenchmark -p recording=scanner-frames-xxxx.mbsf
+ * </pre>
+ *
+ * Each operation replays one recorded frame (conversion, then {@link ZxingDetector}); grid=1 is the
+ * single full-frame detector. The "detected" counter is the number of frames in which a code was
+ * found, so latency can be weighed against the detection rate. ZXing stands in for ML Kit, so the
+ * absolute numbers differ from the device; tiling.compare measures ML Kit itself on the device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TiledDetectionBenchmark {
+
+    @Param({"scanner-frames.mbsf"})
+    public String recording;
+
+    @Param({"1", "2", "3"})
+    public int grid;
+
+    @Param({"20"})
+    public int overlap;
+
+    /**
+     * Frames with and without a code, per iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long detected;
+        public long missed;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            detected = 0;
+            missed = 0;
+        }
+    }
+
+    private FrameReplay replay;
+    private FramePipeline pipeline;
+    private ZxingDetector detector;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        replay = new FrameReplay(new File(recording));
+        if (!replay.next()) {
+            throw new IOException("no frames in " + recording);
+        }
+        replay.rewind();
+        pipeline = new FramePipeline();
+        detector = new ZxingDetector(grid, overlap / 100f);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        detector.close();
+        replay.close();
+    }
+
+    /**
+     * One recorded frame per operation, looping over the recording
+     */
+    @Benchmark
+    public boolean frame(Counters counters) {
+        if (!replay.next()) {
+            replay.rewind();
+            replay.next();
+        }
+        boolean found = replay.process(pipeline, detector);
+        if (found) {
+            counters.detected ++;
+        } else {
+            counters.missed ++;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ZXing detector for replayed frames, on the full frame or on the tiles of a {@link TileLayout}
+ *
+ * Stands in for ML Kit off-device. The tiled path follows {@link TiledDetector} with
+ * tiling.maxCodes = 1: the tiles are detected in parallel on min(tiles, cores - 1) threads and the
+ * first tile with a code ends the frame.
+ */
+public class ZxingDetector implements FrameReplay.Detector, Closeable {
+
+    private final TileLayout layout;
+    private final ExecutorService workers;
+    private final MultiFormatReader reader = new MultiFormatReader();
+
+    /**
+     * @param grid    tiles per side (1: full frame, single detector)
+     * @param overlap overlap between neighbouring tiles, relative to the tile size
+     */
+    public ZxingDetector(int grid, float overlap) {
+        if (grid > 1) {
+            layout = new TileLayout(grid, overlap);
+            workers = Executors.newFixedThreadPool(
+                    Math.max(1, Math.min(grid * grid, Runtime.getRuntime().availableProcessors() - 1)));
+        } else {
+            layout = null;
+            workers = null;
+        }
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public boolean detect(byte[] nv21, FrameMetadata metadata, int[] roi) {
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        if (layout == null) {
+            return decode(reader, nv21, width, height, 0, 0, width, height);
+        }
+        layout.update(metadata);
+        List<Callable<Boolean>> tiles = new ArrayList<>(layout.getTileCount());
+        for (int i = 0; i < layout.getTileCount(); i ++) {
+            int[] rect = layout.getRect(i);
+            tiles.add(() -> {
+                // MultiFormatReader はスレッドセーフではない  one reader per task
+                if (!decode(new MultiFormatReader(), nv21, width, height,
+                        rect[0], rect[1], rect[2] - rect[0], rect[3] - rect[1])) {
+                    throw NotFoundException.getNotFoundInstance();
+                }
+                return true;
+            });
+        }
+        try {
+            return workers.invokeAny(tiles);
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static boolean decode(MultiFormatReader reader, byte[] nv21, int width, int height,
+                                  int left, int top, int cropWidth, int cropHeight) {
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(
+                nv21, width, height, left, top, cropWidth, cropHeight, false);
+        try {
+            reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.datamatrix.encoder.SymbolShapeHint;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Encodes barcodes (ZXing) and rasterizes them into ARGB pixels (generate action)
+ *
+ * The pixel buffer is reused across calls, so an instance must not be shared between threads.
+ * Has no Android dependency.
+ */
+public class BarcodeEncoder {
+
+    public static final int BLACK = 0xff000000;
+    public static final int WHITE = 0xffffffff;
+
+    private final MultiFormatWriter writer = new MultiFormatWriter();
+    private int[] pixels = new int[0];
+    private BitArray row = new BitArray(0);
+    private int width;
+    private int height;
+
+    /**
+     * @param text            contents
+     * @param format          barcode format
+     * @param margin          quiet zone in modules, or negative for the format default
+     * @param errorCorrection QR code error correction level ("L", "M", "Q", "H"), or null
+     * @return module matrix with one pixel per module (one row for 1D formats)
+     */
+    public BitMatrix encode(String text, BarcodeFormat format, int margin, String errorCorrection)
+            throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+        if (margin >= 0) {
+            hints.put(EncodeHintType.MARGIN, margin);
+        }
+        if (format == BarcodeFormat.QR_CODE && errorCorrection != null) {
+            try {
+                hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.valueOf(errorCorrection));
+            } catch (IllegalArgumentException e) {
+                throw new WriterException("unknown error correction level: " + errorCorrection);
+            }
+        }
+        if (format == BarcodeFormat.DATA_MATRIX) {
+            hints.put(EncodeHintType.DATA_MATRIX_SHAPE, SymbolShapeHint.FORCE_SQUARE);
+        }
+        try {
+            // 拡大は render() で行う  scaling is left to render(), which is much faster than ZXing's
+            return writer.encode(text, format, 0, 0, hints);
+        } catch (IllegalArgumentException e) {
+            // 1D 形式で使えない文字・桁数  contents not encodable in the format
+            throw new WriterException(e.getMessage());
+        }
+    }
+
+    /**
+     * Rasterize a module matrix, black modules on white
+     *
+     * Modules are scaled by the largest integer factor fitting the requested size and centered;
+     * 1D codes are stretched to the full height. The output is never smaller than the matrix.
+     *
+     * @param modules matrix from {@link #encode}
+     * @param width   requested width in pixels
+     * @param height  requested height in pixels
+     * @return pixels of {@link #getWidth()} x {@link #getHeight()}, valid until the next call
+     */
+    public int[] render(BitMatrix modules, int width, int height) {
+        int moduleWidth = modules.getWidth();
+        int moduleHeight = modules.getHeight();
+        this.width = Math.max(width, moduleWidth);
+        this.height = Math.max(height, moduleHeight);
+        int scaleX = this.width / moduleWidth;
+        int scaleY = this.height;
+        if (moduleHeight > 1) {
+            scaleX = Math.min(scaleX, this.height / moduleHeight);
+            scaleY = scaleX;
+        }
+        int left = (this.width - moduleWidth * scaleX) / 2;
+        int top = (this.height - moduleHeight * scaleY) / 2;
+        int bottom = top + moduleHeight * scaleY;
+        if (pixels.length < this.width * this.height) {
+            pixels = new int[this.width * this.height];
+        }
+        for (int y = 0; y < top; y ++) {
+            Arrays.fill(pixels, y * this.width, (y + 1) * this.width, WHITE);
+        }
+        for (int m = 0; m < moduleHeight; m ++) {
+            row = modules.getRow(m, row);
+            int offset = (top + m * scaleY) * this.width;
+            Arrays.fill(pixels, offset, offset + left, WHITE);
+            int x = offset + left;
+            for (int i = 0; i < moduleWidth; i ++) {
+                Arrays.fill(pixels, x, x + scaleX, row.get(i) ? BLACK : WHITE);
+                x += scaleX;
+            }
+            Arrays.fill(pixels, x, offset + this.width, WHITE);
+            // 同じモジュール行はコピーで拡大する  the other rows of the module are copies
+            for (int y = 1; y < scaleY; y ++) {
+                System.arraycopy(pixels, offset, pixels, offset + y * this.width, this.width);
+            }
+        }
+        for (int y = bottom; y < this.height; y ++) {
+            Arrays.fill(pixels, y * this.width, (y + 1) * this.width, WHITE);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return width of the last rendered image
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the last rendered image
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.LruCache;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Generates barcode images as PNG (generate action)
+ *
+ * Rendered PNGs are kept in a bounded LRU cache keyed by contents, format, size and options, so
+ * codes shown repeatedly (pick-tickets, pairing codes) are encoded once. Thread-safe; runs
+ * synchronously and must be called on a background thread.
+ */
+public class BarcodeGenerator {
+
+    /** Cache size in bytes of PNG data */
+    private static final int CACHE_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_SIZE = 4096;
+    /** Idle bitmaps kept for reuse */
+    private static final int MAX_POOLED_BITMAPS = 2;
+
+    private final File outputDir;
+    private final ResourceManager resourceManager;
+    private final LruCache<String, byte[]> cache = new LruCache<String, byte[]>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] png) {
+            return png.length;
+        }
+    };
+    // スレッド毎にエンコーダーを再利用する  one encoder per pool thread
+    private final ThreadLocal<BarcodeEncoder> encoders = new ThreadLocal<BarcodeEncoder>() {
+        @Override
+        protected BarcodeEncoder initialValue() {
+            return new BarcodeEncoder();
+        }
+    };
+    // 解放できるようビットマップはスレッド間で共有するプールに置く  a shared pool, so idle bitmaps can be released
+    private final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+
+    /**
+     * @param outputDir       directory of generated files (output "file")
+     * @param resourceManager manager tracking the cache, or null
+     */
+    public BarcodeGenerator(File outputDir, ResourceManager resourceManager) {
+        this.outputDir = outputDir;
+        this.resourceManager = resourceManager;
+    }
+
+    /**
+     * Generate a barcode image
+     *
+     * <pre>
+     * { "format": "QR_CODE", "cached": false, "generateMs": 4.2,
+     *   "image": "data:image/png;base64,..." }   or   "file": "file:///.../barcodes/barcode-xxxx.png"
+     * </pre>
+     *
+     * @param text    contents
+     * @param options format, width, height, margin, errorCorrection, output ("base64" or "file")
+     * @return result
+     * @throws IllegalArgumentException unsupported format or contents not encodable in the format
+     */
+    public JSONObject generate(String text, JSONObject options) throws IOException, JSONException {
+        long start = SystemClock.elapsedRealtimeNanos();
+        String formatName = options.optString("format", "QR_CODE");
+        int barcodeFormat = BarcodeScannerActivity.getBarcodeFormat(formatName);
+        BarcodeFormat format = getEncodeFormat(barcodeFormat);
+        if (format == null) {
+            throw new IllegalArgumentException("unsupported format: " + formatName);
+        }
+        boolean linear = (SplitFormatDetector.LINEAR_FORMATS & barcodeFormat) != 0;
+        int width = Math.min(Math.max(options.optInt("width", linear ? 600 : 512), 1), MAX_SIZE);
+        int height = Math.min(Math.max(options.optInt("height", linear ? 200 : width), 1), MAX_SIZE);
+        int margin = options.optInt("margin", -1);
+        String errorCorrection = options.optString("errorCorrection", "M");
+        boolean toFile = "file".equals(options.optString("output", "base64"));
+
+        String key = formatName + '\n' + width + 'x' + height + '\n' + margin + '\n' + errorCorrection + '\n' + text;
+        byte[] png = cache.get(key);
+        boolean cached = png != null;
+        if (png == null) {
+            ScanTrace.begin("generate");
+            try {
+                png = render(text, format, width, height, margin, errorCorrection);
+            } finally {
+                ScanTrace.end();
+            }
+            cache.put(key, png);
+            if (resourceManager != null) {
+                resourceManager.checkBudget();
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("format", formatName);
+        result.put("cached", cached);
+        if (toFile) {
+            result.put("file", Uri.fromFile(writeFile(key, png)).toString());
+        } else {
+            result.put("image", "data:image/png;base64," + Base64.encodeToString(png, Base64.NO_WRAP));
+        }
+        result.put("generateMs", (SystemClock.elapsedRealtimeNanos() - start) / 1e6);
+        return result;
+    }
+
+    /**
+     * Drop the cached images and idle bitmaps; the generated files are kept
+     */
+    public void release() {
+        cache.evictAll();
+        synchronized (bitmaps) {
+            for (Bitmap bitmap : bitmaps) {
+                bitmap.recycle();
+            }
+            bitmaps.clear();
+        }
+    }
+
+    /**
+     * @return bytes of the cached images and idle bitmaps
+     */
+    public long getCacheBytes() {
+        long bytes = cache.size();
+        synchronized (bitmaps) {
+            for (Bitmap bitmap : bitmaps) {
+                bytes += bitmap.getAllocationByteCount();
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] render(String text, BarcodeFormat format, int width, int height, int margin,
+                          String errorCorrection) {
+        BarcodeEncoder encoder = encoders.get();
+        BitMatrix modules;
+        try {
+            modules = encoder.encode(text, format, margin, errorCorrection);
+        } catch (WriterException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        int[] pixels = encoder.render(modules, width, height);
+        Bitmap bitmap = takeBitmap(encoder.getWidth(), encoder.getHeight());
+        try {
+            bitmap.setPixels(pixels, 0, encoder.getWidth(), 0, 0, encoder.getWidth(), encoder.getHeight());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            return out.toByteArray();
+        } finally {
+            returnBitmap(bitmap);
+        }
+    }
+
+    private Bitmap takeBitmap(int width, int height) {
+        synchronized (bitmaps) {
+            for (Iterator<Bitmap> i = bitmaps.iterator(); i.hasNext(); ) {
+                Bitmap bitmap = i.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    i.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private void returnBitmap(Bitmap bitmap) {
+        Bitmap evicted = null;
+        synchronized (bitmaps) {
+            bitmaps.addFirst(bitmap);
+            if (bitmaps.size() > MAX_POOLED_BITMAPS) {
+                evicted = bitmaps.removeLast();
+            }
+        }
+        if (evicted != null) {
+            evicted.recycle();
+        }
+    }
+
+    /**
+     * Write the PNG once per cache key; the same request returns the same file
+     */
+    private File writeFile(String key, byte[] png) throws IOException {
+        File file = new File(outputDir, "barcode-" + digest(key) + ".png");
+        if (file.length() == png.length) {
+            return file;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("cannot create " + outputDir);
+        }
+        // 並行リクエストが書きかけのファイルを返さないよう一時ファイルから置き換える
+        File temp = File.createTempFile("barcode-", ".tmp", outputDir);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(png);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("cannot write " + file);
+        }
+        return file;
+    }
+
+    private static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available on Android
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+
+    /**
+     * Barcode.FORMAT_XXXX から生成に使う形式に変換  Convert to the ZXing format used for encoding
+     * @param format Barcode.FORMAT_XXXX
+     * @return ZXing format, or null if the format cannot be generated
+     */
+    static BarcodeFormat getEncodeFormat(int format) {
+        switch (format) {
+            case Barcode.FORMAT_QR_CODE:
+                return BarcodeFormat.QR_CODE;
+            case Barcode.FORMAT_EAN_8:
+                return BarcodeFormat.EAN_8;
+            case Barcode.FORMAT_EAN_13:
+                return BarcodeFormat.EAN_13;
+            case Barcode.FORMAT_ITF:
+                return BarcodeFormat.ITF;
+            case Barcode.FORMAT_CODE_128:
+                return BarcodeFormat.CODE_128;
+            case Barcode.FORMAT_CODE_39:
+                return BarcodeFormat.CODE_39;
+            case Barcode.FORMAT_CODE_93:
+                return BarcodeFormat.CODE_93;
+            case Barcode.FORMAT_CODABAR:
+                return BarcodeFormat.CODABAR;
+            case Barcode.FORMAT_UPC_A:
+                return BarcodeFormat.UPC_A;
+            case Barcode.FORMAT_UPC_E:
+                return BarcodeFormat.UPC_E;
+            case Barcode.FORMAT_PDF417:
+                return BarcodeFormat.PDF_417;
+            case Barcode.FORMAT_AZTEC:
+                return BarcodeFormat.AZTEC;
+            case Barcode.FORMAT_DATA_MATRIX:
+                return BarcodeFormat.DATA_MATRIX;
+            default:
+                return null;
+        }
+    }
+}
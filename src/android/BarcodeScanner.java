@@ -8,18 +8,31 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CallbackContext;
 
 import org.apache.cordova.PermissionHelper;
-import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Barcode scanner plugin class
@@ -31,18 +44,71 @@ public class BarcodeScanner extends CordovaPlugin {
     protected final static String[] permissions = {Manifest.permission.CAMERA};
     public static final String PERMISSION_DENIED_ERROR = "permission denied";
     public static final String UNKNOWN_ERROR = "unknown error";
-    private JSONObject options;
+    private static final String STATE_SESSION_ID = "sessionId";
 
-    public CallbackContext callbackContext;
+    /**
+     * Scan session of the scanner activity on screen. Cordova keeps a single activity result callback
+     * and cancels it whenever another activity is started for a result, so one scanner is shown at a
+     * time and later scan sessions wait in {@link #queuedScans}.
+     */
+    private ScanSession activeScan;
+    /** Scan sessions waiting for the scanner activity on screen to return, guarded by itself */
+    private final Deque<ScanSession> queuedScans = new ArrayDeque<>();
+    /** Scan sessions waiting for the camera permission */
+    private final List<ScanSession> permissionPendingSessions = new ArrayList<>();
+    /** Whether the app manifest requests the camera permission, checked once per process */
+    private static Boolean cameraPermissionInManifest;
+    /** Senders of the frame taps (frames.enabled), by session id */
+    private final Map<Integer, FrameSender> frameSenders = new ConcurrentHashMap<>();
+    /** Barcode image generator with its render cache, created on first use */
+    private BarcodeGenerator generator;
+    /** Tracks the plugin's caches and the scanner buffers, releasing them on trim callbacks */
+    private ResourceManager resourceManager;
+    private final ResourceManager.Resource bitmapBuffers = new ResourceManager.Resource() {
+        @Override
+        public long getBytes() {
+            return BitmapUtils.getBufferBytes();
+        }
+
+        @Override
+        public void release() {
+            BitmapUtils.releaseBuffers();
+        }
+    };
+    private ResourceManager.Resource generatorCache;
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    protected void pluginInitialize() {
+        resourceManager = ResourceManager.getInstance(this.cordova.getActivity());
+        resourceManager.register("bitmapUtils", ResourceManager.TIER_CACHE, bitmapBuffers);
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onDestroy() {
+        resourceManager.unregister(bitmapBuffers);
+        synchronized (this) {
+            if (generatorCache != null) {
+                resourceManager.unregister(generatorCache);
+                generator.release();
+            }
+        }
+        super.onDestroy();
+    }
 
     /**
      * ${inheritDoc}
      */
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) {
-        this.callbackContext = callbackContext;
         if ("scan".equals(action)) {
             // plugin scan action
+            JSONObject options = null;
             try {
                 if (args.length() > 0) {
                     options = args.getJSONObject(0);
@@ -50,7 +116,30 @@ public class BarcodeScanner extends CordovaPlugin {
             } catch (JSONException e) {
                 options = null;
             }
-            callScanner();
+            callScanner(new ScanSession(action, options, callbackContext));
+        } else if ("decode".equals(action)) {
+            // plugin decode action (still images, runs in background)
+            JSONArray images = args.optJSONArray(0);
+            if (images == null) {
+                return false;
+            }
+            callDecoder(new ScanSession(action, args.optJSONObject(1), callbackContext), images);
+        } else if ("generate".equals(action)) {
+            // plugin generate action (barcode image, runs in background)
+            String text = args.optString(0, null);
+            if (text == null) {
+                return false;
+            }
+            callGenerator(new ScanSession(action, args.optJSONObject(1), callbackContext), text);
+        } else if ("memoryUsage".equals(action)) {
+            // 追跡中のリソースとヒープ使用量  tracked resources and heap usage
+            new ScanSession(action, null, callbackContext).success(resourceManager.getUsage());
+        } else if ("ackFrame".equals(action)) {
+            // JS が処理し終えたフレームを通知する  frames processed by JS, lets the frame tap send again
+            FrameTap tap = FrameTap.get(args.optInt(0, -1));
+            if (tap != null) {
+                tap.ack(args.optLong(1));
+            }
         } else {
             return false;
         }
@@ -60,14 +149,16 @@ public class BarcodeScanner extends CordovaPlugin {
     /**
      * Call scanner feature
      */
-    private void callScanner() {
+    private void callScanner(ScanSession session) {
         // カメラ許可の確認
-        ScannerPermission permission = checkAndRequestPermissions();
+        ScannerPermission permission = checkAndRequestPermissions(session);
         if (permission == ScannerPermission.GRANTED) {
             // 許可された場合のみ処理を続行する
-            showScanner();
+            showScanner(session);
         } else if (permission == ScannerPermission.DENIED) {
-            sendPluginError(PERMISSION_DENIED_ERROR);
+            sendPluginError(session, PERMISSION_DENIED_ERROR);
+        } else if (permission == ScannerPermission.ERROR) {
+            sendPluginError(session, UNKNOWN_ERROR);
         }
 
         // ScannerPermission.REQUESTINGの場合は onRequestPermissionResult() で許可のリクエスト結果が渡されるため
@@ -75,14 +166,153 @@ public class BarcodeScanner extends CordovaPlugin {
     }
 
     /**
-     * Show scanner screen
+     * Call image decoder in background
+     *
+     * Each decode request runs on the Cordova thread pool, independently of other sessions.
      */
-    private void showScanner() {
+    private void callDecoder(ScanSession session, JSONArray images) {
+        this.cordova.getThreadPool().execute(() -> {
+            try {
+                session.success(ImageDecoder.decode(this.cordova.getActivity().getContentResolver(), images));
+            } catch (JSONException e) {
+                sendPluginError(session, UNKNOWN_ERROR);
+            }
+        });
+    }
+
+    /**
+     * Call barcode generator in background
+     */
+    private void callGenerator(ScanSession session, String text) {
+        BarcodeGenerator generator = getGenerator();
+        JSONObject options = session.getOptions() != null ? session.getOptions() : new JSONObject();
+        this.cordova.getThreadPool().execute(() -> {
+            try {
+                session.success(generator.generate(text, options));
+            } catch (IllegalArgumentException e) {
+                sendPluginError(session, String.valueOf(e.getMessage()));
+            } catch (IOException | JSONException e) {
+                sendPluginError(session, UNKNOWN_ERROR);
+            }
+        });
+    }
+
+    private synchronized BarcodeGenerator getGenerator() {
+        if (generator == null) {
+            BarcodeGenerator created = new BarcodeGenerator(
+                    new File(this.cordova.getActivity().getCacheDir(), "barcodes"), resourceManager);
+            generatorCache = new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return created.getCacheBytes();
+                }
+
+                @Override
+                public void release() {
+                    created.release();
+                }
+            };
+            resourceManager.register("generatorCache", ResourceManager.TIER_CACHE, generatorCache);
+            generator = created;
+        }
+        return generator;
+    }
+
+    /**
+     * Show scanner screen, or queue the session while another scanner is shown
+     */
+    private void showScanner(ScanSession session) {
+        synchronized (queuedScans) {
+            if (activeScan != null) {
+                queuedScans.add(session);
+                return;
+            }
+            activeScan = session;
+        }
+        startScanner(session);
+    }
+
+    private void startScanner(ScanSession session) {
         Intent intent = new Intent(this.cordova.getActivity(), BarcodeScannerActivity.class);
-        if (options != null) {
-            setIntentExtras(options, intent, "");
+        if (session.getOptions() != null) {
+            setIntentExtras(session.getOptions(), intent, "");
+        }
+        intent.putExtra(BarcodeScannerActivity.INTENT_SESSION_ID, session.getId());
+        intent.putExtra(BarcodeScannerActivity.INTENT_START_TIME, SystemClock.elapsedRealtime());
+        JSONObject frames = session.getOptions() != null ? session.getOptions().optJSONObject("frames") : null;
+        if (frames != null && frames.optBoolean("enabled", false)) {
+            startFrameTap(session, frames);
+        }
+        this.cordova.startActivityForResult((CordovaPlugin) this, intent, session.getRequestCode(REQUEST_CODE_SCANNER));
+    }
+
+    /**
+     * Register the frame tap of a scan session, picked up by the scanner activity
+     */
+    private void startFrameTap(ScanSession session, JSONObject frames) {
+        FrameSender sender = new FrameSender(session);
+        sender.tap = new FrameTap(
+                Math.min(Math.max(frames.optInt("width", 320), 8), 1920),
+                Math.min(Math.max(frames.optInt("height", 0), 0), 1920),
+                Math.min(Math.max(frames.optInt("fps", 5), 1), 30),
+                Math.min(Math.max(frames.optInt("maxPending", 1), 1), 8),
+                sender);
+        frameSenders.put(session.getId(), sender);
+        FrameTap.register(session.getId(), sender.tap);
+    }
+
+    private void stopFrameTap(ScanSession session) {
+        FrameTap.unregister(session.getId());
+        FrameSender sender = frameSenders.remove(session.getId());
+        if (sender != null) {
+            sender.tap.close();
+            sender.executor.shutdown();
+        }
+    }
+
+    /**
+     * Sends tapped frames to JS as progress results on its own thread, keeping the encoding of the
+     * ArrayBuffer off the analyzer thread
+     */
+    private static class FrameSender implements FrameTap.Sink {
+        private final ScanSession session;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        private FrameTap tap;
+
+        FrameSender(ScanSession session) {
+            this.session = session;
+        }
+
+        /**
+         * ${inheritDoc}
+         */
+        @Override
+        public void onFrame(byte[] frame, int width, int height, long seq, int[] roi, int rotation,
+                            long timestampNanos) {
+            int[] frameRoi = roi.clone();
+            try {
+                executor.execute(() -> {
+                    JSONObject result = new JSONObject();
+                    try {
+                        JSONObject info = new JSONObject();
+                        info.put("seq", seq);
+                        info.put("width", width);
+                        info.put("height", height);
+                        info.put("rotation", rotation);
+                        info.put("timestamp", timestampNanos / 1000000);
+                        info.put("roi", new JSONArray(Arrays.asList(frameRoi[0], frameRoi[1], frameRoi[2], frameRoi[3])));
+                        result.put("frame", info);
+                    } catch (JSONException e) {
+                        Log.d(TAG, "Failed to create JSONObject");
+                    }
+                    session.progress(result, frame);
+                    tap.release(frame);
+                });
+            } catch (RejectedExecutionException e) {
+                // セッション終了と競合した  session ended while the frame was offered
+                tap.release(frame);
+            }
         }
-        this.cordova.startActivityForResult((CordovaPlugin) this, intent, REQUEST_CODE_SCANNER);
     }
 
     /**
@@ -109,6 +339,13 @@ public class BarcodeScanner extends CordovaPlugin {
                     intent.putExtra(extraKey, (String) value);
                 } else if (value instanceof JSONObject) {
                     setIntentExtras((JSONObject) value, intent, extraKey + ".");
+                } else if (value instanceof JSONArray) {
+                    JSONArray array = (JSONArray) value;
+                    String[] strings = new String[array.length()];
+                    for (int j = 0; j < array.length(); j ++) {
+                        strings[j] = array.optString(j);
+                    }
+                    intent.putExtra(extraKey, strings);
                 }
             } catch (JSONException e) {
                 continue;
@@ -122,11 +359,13 @@ public class BarcodeScanner extends CordovaPlugin {
      * GRANTED: 許可
      * REQUESTING: 許可リクエスト中
      * DENIED: 拒否
+     * ERROR: 確認できなかった
      */
     public enum ScannerPermission {
         GRANTED(0),
         REQUESTING(1),
-        DENIED(2);
+        DENIED(2),
+        ERROR(3);
 
         ScannerPermission(int i) {
         }
@@ -135,7 +374,7 @@ public class BarcodeScanner extends CordovaPlugin {
     /**
      * Check permission and request if needed
      */
-    private ScannerPermission checkAndRequestPermissions() {
+    private ScannerPermission checkAndRequestPermissions(ScanSession session) {
         // カメラ許可の確認
         boolean cameraPermission = PermissionHelper.hasPermission(this, Manifest.permission.CAMERA);
         if (cameraPermission) {
@@ -145,24 +384,35 @@ public class BarcodeScanner extends CordovaPlugin {
 
         // Manifest内の定義を確認
         // Manifest内に記述がない場合はリクエストできない
-        boolean hasPermissionInManifest = false;
-        try {
-            PackageManager packageManager = this.cordova.getActivity().getPackageManager();
-            String[] permissionsInPackage = packageManager.getPackageInfo(this.cordova.getActivity().getPackageName(), PackageManager.GET_PERMISSIONS).requestedPermissions;
-            if (permissionsInPackage != null) {
-                if (Arrays.asList(permissionsInPackage).contains(Manifest.permission.CAMERA)) {
-                    hasPermissionInManifest = true;
+        // (Manifest はプロセス中に変わらないため一度だけ確認する)
+        if (cameraPermissionInManifest == null) {
+            boolean hasPermissionInManifest = false;
+            try {
+                PackageManager packageManager = this.cordova.getActivity().getPackageManager();
+                String[] permissionsInPackage = packageManager.getPackageInfo(this.cordova.getActivity().getPackageName(), PackageManager.GET_PERMISSIONS).requestedPermissions;
+                if (permissionsInPackage != null) {
+                    if (Arrays.asList(permissionsInPackage).contains(Manifest.permission.CAMERA)) {
+                        hasPermissionInManifest = true;
+                    }
                 }
+                cameraPermissionInManifest = hasPermissionInManifest;
+            } catch (PackageManager.NameNotFoundException e) {
+                // We are requesting the info for our package, so this should
+                // never be caught
+                Log.w(TAG, "Package info not found: " + e.getMessage());
+                return ScannerPermission.ERROR;
             }
-        } catch (PackageManager.NameNotFoundException e) {
-            // We are requesting the info for our package, so this should
-            // never be caught
-            sendPluginError(UNKNOWN_ERROR);
         }
 
-        if (hasPermissionInManifest) {
+        if (Boolean.TRUE.equals(cameraPermissionInManifest)) {
             // Manifestに記述がある場合のみリクエストする
-            PermissionHelper.requestPermissions(this, REQUEST_CODE_CAMERA_PERMISSION, permissions);
+            // リクエスト中に別のスキャンが呼ばれた場合は結果を待つセッションに追加するだけ
+            synchronized (permissionPendingSessions) {
+                permissionPendingSessions.add(session);
+                if (permissionPendingSessions.size() == 1) {
+                    PermissionHelper.requestPermissions(this, REQUEST_CODE_CAMERA_PERMISSION, permissions);
+                }
+            }
             return ScannerPermission.REQUESTING;
         } else {
             // 記述がないので拒否扱いとする
@@ -174,9 +424,9 @@ public class BarcodeScanner extends CordovaPlugin {
      * プラグインにエラーを返却する  Send error to plugin
      * @param message エラーメッセージ
      */
-    private void sendPluginError(String message) {
+    private void sendPluginError(ScanSession session, String message) {
         Log.d(TAG, "Plugin Error: " + message);
-        this.callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+        session.error(message);
     }
 
     /**
@@ -184,18 +434,120 @@ public class BarcodeScanner extends CordovaPlugin {
      */
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
-        if (requestCode == REQUEST_CODE_SCANNER) {
-            if (resultCode == Activity.RESULT_OK) {
-                String detectedText = intent.getStringExtra(BarcodeScannerActivity.INTENT_DETECTED_TEXT);
-                String detectedFormat = intent.getStringExtra(BarcodeScannerActivity.INTENT_DETECTED_FORMAT);
+        if (ScanSession.isInRange(requestCode, REQUEST_CODE_SCANNER)) {
+            ScanSession session;
+            ScanSession next;
+            synchronized (queuedScans) {
+                session = activeScan;
+                if (session == null || session.getRequestCode(REQUEST_CODE_SCANNER) != requestCode) {
+                    Log.d(TAG, "No scan session for request code " + requestCode);
+                    return;
+                }
+                next = queuedScans.poll();
+                activeScan = next;
+            }
+            stopFrameTap(session);
+            sendScanResult(session, resultCode, intent);
+            if (next != null) {
+                // 待っていたスキャンを開始する  show the scanner of the next queued session
+                startScanner(next);
+            }
+        }
+    }
 
-                JSONObject result = getResultData(detectedText, detectedFormat, false);
-                this.callbackContext.success(result);
-            } else {
-                // cancelled
-                JSONObject result = getResultData("", "", true);
-                this.callbackContext.success(result);
+    /**
+     * Send the result of a scanner activity to its session
+     */
+    private void sendScanResult(ScanSession session, int resultCode, Intent intent) {
+        if (resultCode == Activity.RESULT_OK && intent.hasExtra(BarcodeScannerActivity.INTENT_RECEIVED_FILE)) {
+            sendReceivedMessage(session, intent);
+        } else if (resultCode == Activity.RESULT_OK) {
+            String detectedText = intent.getStringExtra(BarcodeScannerActivity.INTENT_DETECTED_TEXT);
+            String detectedFormat = intent.getStringExtra(BarcodeScannerActivity.INTENT_DETECTED_FORMAT);
+            String detectedGs1 = intent.getStringExtra(BarcodeScannerActivity.INTENT_DETECTED_GS1);
+
+            JSONObject result = getResultData(detectedText, detectedFormat, false);
+            if (detectedGs1 != null) {
+                try {
+                    result.getJSONObject("data").put("gs1", new JSONObject(detectedGs1));
+                } catch (JSONException e) {
+                    Log.d(TAG, "Failed to parse GS1 result");
+                }
             }
+            putMetrics(result, intent);
+            putDeadline(result, intent);
+            session.success(result);
+        } else {
+            // cancelled
+            JSONObject result = getResultData("", "", true);
+            putMetrics(result, intent);
+            putDeadline(result, intent);
+            session.success(result);
+        }
+    }
+
+    /**
+     * 受信したメッセージをバイナリで返却する  Send the message received in receive mode as binary
+     *
+     * The file written by the scanner activity is read in background and deleted.
+     */
+    private void sendReceivedMessage(ScanSession session, Intent intent) {
+        File file = new File(intent.getStringExtra(BarcodeScannerActivity.INTENT_RECEIVED_FILE));
+        JSONObject result = getResultData("", "QR_CODE", false);
+        putMetrics(result, intent);
+        this.cordova.getThreadPool().execute(() -> {
+            byte[] data = new byte[(int) file.length()];
+            try (InputStream in = new FileInputStream(file)) {
+                int read = 0;
+                while (read < data.length) {
+                    int n = in.read(data, read, data.length - read);
+                    if (n < 0) {
+                        throw new IOException("unexpected end of file");
+                    }
+                    read += n;
+                }
+                session.success(result, data);
+            } catch (IOException e) {
+                sendPluginError(session, UNKNOWN_ERROR);
+            } finally {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * スキャン中の計測値を結果に追加する  Add scan session metrics to result
+     */
+    private static void putMetrics(JSONObject result, Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        String metrics = intent.getStringExtra(BarcodeScannerActivity.INTENT_METRICS);
+        if (metrics == null) {
+            return;
+        }
+        try {
+            result.put("metrics", new JSONObject(metrics));
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to parse metrics");
+        }
+    }
+
+    /**
+     * 期限切れで終了した場合の情報を結果に追加する  Add deadline outcome (deadline.timeout) to result
+     */
+    private static void putDeadline(JSONObject result, Intent intent) {
+        if (intent == null || !intent.getBooleanExtra(BarcodeScannerActivity.INTENT_TIMED_OUT, false)) {
+            return;
+        }
+        try {
+            result.put("timedOut", true);
+            String notFound = intent.getStringExtra(BarcodeScannerActivity.INTENT_NOT_FOUND);
+            if (notFound != null) {
+                result.put("notFound", new JSONObject(notFound));
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to parse deadline result");
         }
     }
 
@@ -214,12 +566,31 @@ public class BarcodeScanner extends CordovaPlugin {
         return result;
     }
 
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public Bundle onSaveInstanceState() {
+        // Cordova が復元できるのは表示中のスキャナーのコールバックのみ (待機中のスキャンは失われる)
+        Bundle state = new Bundle();
+        synchronized (queuedScans) {
+            state.putInt(STATE_SESSION_ID, activeScan != null ? activeScan.getId() : -1);
+        }
+        return state;
+    }
+
     /**
      * ${inheritDoc}
      */
     @Override
     public void onRestoreStateForActivityResult(Bundle state, CallbackContext callbackContext) {
-        this.callbackContext = callbackContext;
+        int id = state != null ? state.getInt(STATE_SESSION_ID, -1) : -1;
+        if (id < 0) {
+            return;
+        }
+        synchronized (queuedScans) {
+            activeScan = new ScanSession(id, "scan", null, callbackContext);
+        }
     }
 
     /**
@@ -231,15 +602,24 @@ public class BarcodeScanner extends CordovaPlugin {
                                            int[] grantResults) {
         switch (requestCode) {
             case REQUEST_CODE_CAMERA_PERMISSION:
+                List<ScanSession> sessions;
+                synchronized (permissionPendingSessions) {
+                    sessions = new ArrayList<>(permissionPendingSessions);
+                    permissionPendingSessions.clear();
+                }
                 for (int r : grantResults) {
                     if (r == PackageManager.PERMISSION_DENIED) {
                         // 許可されなかったのでエラーを返却
-                        sendPluginError(PERMISSION_DENIED_ERROR);
+                        for (ScanSession session : sessions) {
+                            sendPluginError(session, PERMISSION_DENIED_ERROR);
+                        }
                         return;
                     }
                 }
                 // 許可されたのでスキャナー画面へ遷移
-                showScanner();
+                for (ScanSession session : sessions) {
+                    showScanner(session);
+                }
                 break;
         }
     }
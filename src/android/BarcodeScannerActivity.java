@@ -6,10 +6,13 @@ package io.monaca.plugin.barcodescanner;
 import androidx.annotation.NonNull;
 import androidx.annotation.RequiresPermission;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
+import androidx.camera.core.UseCaseGroup;
+import androidx.camera.core.ViewPort;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
@@ -22,26 +25,46 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.drawable.GradientDrawable;
 import android.media.Image;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Size;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.google.android.gms.tasks.Task;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mlkit.vision.barcode.BarcodeScanner;
 import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
 import com.google.mlkit.vision.barcode.BarcodeScanning;
 import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.common.InputImage;
-import java.nio.ByteBuffer;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
@@ -61,6 +84,16 @@ public class BarcodeScannerActivity extends AppCompatActivity {
 
     public static final String INTENT_DETECTED_TEXT = "detectedText";
     public static final String INTENT_DETECTED_FORMAT = "detectedFormat";
+    public static final String INTENT_DETECTED_GS1 = "detectedGs1";
+    public static final String INTENT_METRICS = "metrics";
+    public static final String INTENT_RECEIVED_FILE = "receivedFile";
+    public static final String INTENT_SESSION_ID = "sessionId";
+    public static final String INTENT_TIMED_OUT = "timedOut";
+    public static final String INTENT_NOT_FOUND = "notFound";
+    public static final String INTENT_START_TIME = "startTime";
+
+    /** Resolved resource ids, shared by all scanner activities of the process */
+    private static final Map<String, Integer> resourceIds = new HashMap<>();
 
     private final int DETECTION_AREA_COLOR = 0xffffffff;
     private final int DETECTION_AREA_DETECTED_COLOR = 0xff0085b1;
@@ -73,21 +106,77 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     private final int TIMEOUT_PROMPT_BACKGROUND_COLOR = 0xb4404040;
     private final int TIMEOUT_PROMPT_BACKGROUND_CORNER_RADIUS = 20;
 
+    private final int MAX_CANDIDATES = 64;
+
     private boolean oneShot = false;
     private boolean showTimeoutPrompt;
     private int timeoutPromptSpan;
     private String timeoutPrompt = "Barcode not detected";
     private int debugPreviewMode = 0;
+    private ScanRules scanRules;
+    private boolean parseGs1 = false;
+
+    private boolean idleEnabled = false;
+    private int idleInterval;
+    private boolean idleUnbind = false;
+    private boolean idle = false;
+    private long lastIdleAnalysisTime = 0;
+    private IdleMonitor idleMonitor;
+    private ScanMetrics metrics;
 
-    private Handler timeoutPromptHandler;
-    private Runnable timeoutPromptRunnable;
+    private FrameRecorder frameRecorder;
+    private FrameQualityGate qualityGate;
+    private TiledDetector tiledDetector;
+    // 1 フレームおきに全体検出と交互に実行して遅延を比較する  tiling.compare
+    private boolean tilingCompare = false;
+    private SplitFormatDetector splitDetector;
+    private StillCaptureFallback stillCapture;
+    private LowLightFusion lowLightFusion;
+    private LuminancePreprocessor preprocessor;
+    private FountainDecoder fountainDecoder;
+    private FrameTap frameTap;
+    private int analysisWidth;
+    private final LensSelector lensSelector = new LensSelector();
+    private String lens;
+    private int lensDistance;
+    private int analysisHeight;
+    private MotionGate motionGate;
+
+    private ProcessCameraProvider cameraProvider;
+    private CameraSelector cameraSelector;
+    private Camera camera;
+    private ImageAnalysis imageAnalysis;
+    private ScannerAnalyzer analyzer;
+
+    private ResourceManager resourceManager;
+    private final List<ResourceManager.Resource> resources = new ArrayList<>();
+
+    // タイムアウト表示と期限は同じハンドラーで処理する  one scheduler for the prompt and the deadline
+    private final Handler timerHandler = new Handler(Looper.getMainLooper());
+    private final Runnable timeoutPromptRunnable = this::onTimeoutPrompt;
+    private final Runnable deadlineRunnable = this::onDeadline;
+    private long lastDetectionTime;
+
+    private int deadlineMillis = 0;
+    private final Map<String, Integer> candidateCounts = new HashMap<>();
+    private Barcode bestCandidate;
+    private int bestCandidateCount = 0;
+    private long codesDetected = 0;
+    private long codesRejected = 0;
+    private Rect partialRegion;
 
     /**
      * ${inheritDoc}
      */
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createTime = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
+        // 最初の ScanTrace 呼び出しより前に有効にする  enable before the first trace section
+        ScanTrace.setEnabled(getIntent().getBooleanExtra("debug.trace", false));
+        // カメラの準備をレイアウト生成と並行して始める (権限は不要)  start CameraX while the views are inflated
+        ScanTrace.beginAsync("cameraProvider", 0);
+        cameraProviderFuture = ProcessCameraProvider.getInstance(this);
         Resources res = getResources();
         String packageName = getPackageName();
         int layoutId = getResourceId(res, "activity_barcode_scanner", "layout", packageName);
@@ -105,10 +194,118 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         if (prompt != null && prompt.length() > 0) {
             timeoutPrompt = prompt;
         }
+        deadlineMillis = Math.max(intent.getIntExtra("deadline.timeout", 0), 0) * 1000;
         debugPreviewMode = intent.getIntExtra("debug.preview", 0);
+        scanRules = ScanRules.fromIntent(intent);
+        parseGs1 = intent.getBooleanExtra("parseGs1", false);
+        idleEnabled = intent.getBooleanExtra("idle.enabled", false);
+        idleInterval = Math.max(intent.getIntExtra("idle.interval", 1000), 0);
+        idleUnbind = intent.getBooleanExtra("idle.unbind", false);
+        metrics = new ScanMetrics(this);
+        metrics.setIntentTime(intent.getLongExtra(INTENT_START_TIME, createTime));
+        metrics.onStartupEvent("create", createTime);
+        resourceManager = ResourceManager.getInstance(this);
+        resourceManager.setBudget(Math.max(intent.getIntExtra("memory.budget", 0), 0) * 1024L * 1024L);
+        metrics.setResourceManager(resourceManager);
+        if (intent.getBooleanExtra("quality.sharpness", false)) {
+            qualityGate = new FrameQualityGate(
+                    Math.min(Math.max(intent.getIntExtra("quality.ratio", 35), 0), 100) / 100.0,
+                    Math.max(intent.getIntExtra("quality.maxDrops", 10), 0));
+        }
+        if (intent.getBooleanExtra("quality.gyro", false)) {
+            motionGate = new MotionGate(this,
+                    (float) Math.toRadians(Math.max(intent.getIntExtra("quality.maxAngularRate", 60), 1)));
+        }
+        metrics.setQualityGates(qualityGate, motionGate);
+        lens = intent.getStringExtra("camera.lens");
+        if (lens == null) {
+            lens = LensSelector.LENS_AUTO;
+        }
+        lensDistance = Math.max(intent.getIntExtra("camera.distance", 100), 10);
+        metrics.setLensSelector(lensSelector);
+        analysisWidth = intent.getIntExtra("analysis.width", 0);
+        analysisHeight = intent.getIntExtra("analysis.height", 0);
+        if (intent.getBooleanExtra("tiling.enabled", false)) {
+            tiledDetector = new TiledDetector(
+                    Math.min(Math.max(intent.getIntExtra("tiling.grid", 2), 1), 4),
+                    Math.min(Math.max(intent.getIntExtra("tiling.overlap", 20), 0), 100) / 100f,
+                    Math.max(intent.getIntExtra("tiling.maxCodes", 1), 0),
+                    Barcode.FORMAT_ALL_FORMATS);
+            tilingCompare = intent.getBooleanExtra("tiling.compare", false);
+            metrics.setDetectionMode("tiled");
+        } else if (intent.getBooleanExtra("split.enabled", false)) {
+            splitDetector = new SplitFormatDetector(getFormatGroups(intent));
+            metrics.setDetectionMode("split");
+            metrics.setSplitDetector(splitDetector);
+        }
+        if (intent.getBooleanExtra("fusion.enabled", false)) {
+            lowLightFusion = new LowLightFusion(
+                    Math.min(Math.max(intent.getIntExtra("fusion.frames", 4), 2), 8),
+                    Math.min(Math.max(intent.getIntExtra("fusion.maxLuminance", 60), 0), 255),
+                    "median".equals(intent.getStringExtra("fusion.mode")));
+            metrics.setLowLightFusion(lowLightFusion);
+        }
+        if (intent.getBooleanExtra("preprocess.enabled", false)) {
+            String[] passes = intent.getStringArrayExtra("preprocess.passes");
+            if (passes == null) {
+                String pass = intent.getStringExtra("preprocess.passes");
+                passes = pass != null ? new String[]{pass} : new String[]{
+                        LuminancePreprocessor.INVERT, LuminancePreprocessor.CLAHE};
+            }
+            try {
+                preprocessor = new LuminancePreprocessor(passes,
+                        Math.max(intent.getIntExtra("preprocess.interval", 3), 1),
+                        Math.max(intent.getIntExtra("preprocess.minTexture", 150), 0));
+            } catch (IllegalArgumentException e) {
+                Log.d(TAG, e.getMessage());
+            }
+            if (preprocessor != null && preprocessor.hasPasses()) {
+                metrics.setPreprocessor(preprocessor);
+            } else {
+                preprocessor = null;
+            }
+        }
+        if (intent.getBooleanExtra("still.enabled", false)) {
+            stillCapture = new StillCaptureFallback(
+                    Math.max(intent.getIntExtra("still.frames", 30), 1),
+                    Math.max(intent.getIntExtra("still.minTexture", 150), 0));
+            metrics.setStillCapture(stillCapture);
+        }
+        if (intent.getBooleanExtra("receive.enabled", false)) {
+            fountainDecoder = new FountainDecoder(
+                    Math.max(intent.getIntExtra("receive.maxBytes", 1024 * 1024), 1));
+            metrics.setFountainDecoder(fountainDecoder);
+        }
+        if (intent.getBooleanExtra("frames.enabled", false)) {
+            // フレームタップはプラグイン側で登録済み  registered by the plugin with its sender
+            frameTap = FrameTap.get(intent.getIntExtra(INTENT_SESSION_ID, -1));
+            metrics.setFrameTap(frameTap);
+        }
+        registerBufferResources();
+        registerDetectorResources();
+        if (intent.getBooleanExtra("debug.record", false)) {
+            startRecording(Math.max(intent.getIntExtra("debug.recordMaxMB", 200), 1));
+        }
+        if (idleEnabled) {
+            idleMonitor = new IdleMonitor(this, Math.max(intent.getIntExtra("idle.delay", 10), 1) * 1000,
+                    new IdleMonitor.Listener() {
+                        @Override
+                        public void onIdle() {
+                            enterIdle();
+                        }
+
+                        @Override
+                        public void onMotion() {
+                            exitIdle();
+                        }
+                    });
+        }
 
         // create UI from resource
+        ScanTrace.begin("inflate");
         setContentView(LayoutInflater.from(this).inflate(layoutId, null));
+        ScanTrace.end();
+        metrics.onStartupEvent("inflate");
         previewView = findViewById(previewViewId);
         // detected text
         detectedTextButton = findViewById(detectedTextButtonId);
@@ -120,12 +317,14 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         drawable.setStroke(DETECTION_AREA_BORDER, DETECTION_AREA_COLOR);
         // timeout prompt
         timeoutPromptView = findViewById(timeoutPromptId);
-        GradientDrawable shape = new GradientDrawable();
-        shape.setCornerRadius(TIMEOUT_PROMPT_BACKGROUND_CORNER_RADIUS);
-        shape.setTint(TIMEOUT_PROMPT_BACKGROUND_COLOR);
-        timeoutPromptView.setBackground(shape);
-        timeoutPromptView.setText(timeoutPrompt);
         timeoutPromptView.setVisibility(View.INVISIBLE);
+        if (isEnableTimeoutPrompt()) {
+            GradientDrawable shape = new GradientDrawable();
+            shape.setCornerRadius(TIMEOUT_PROMPT_BACKGROUND_CORNER_RADIUS);
+            shape.setTint(TIMEOUT_PROMPT_BACKGROUND_COLOR);
+            timeoutPromptView.setBackground(shape);
+            timeoutPromptView.setText(timeoutPrompt);
+        }
         // for debug mode
         debugPreviewView = findViewById(debugPreviewId);
         debugPreviewView.setVisibility( debugPreviewMode == 0 ? View.INVISIBLE : View.VISIBLE);
@@ -155,6 +354,189 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         initCamera();
     }
 
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (idleMonitor != null) {
+            idleMonitor.start();
+        }
+        if (motionGate != null) {
+            motionGate.start();
+        }
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    protected void onPause() {
+        if (idleMonitor != null) {
+            idleMonitor.stop();
+        }
+        if (motionGate != null) {
+            motionGate.stop();
+        }
+        super.onPause();
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    protected void onDestroy() {
+        timerHandler.removeCallbacksAndMessages(null);
+        for (ResourceManager.Resource resource : resources) {
+            resourceManager.unregister(resource);
+        }
+        if (analyzer != null) {
+            analyzer.close();
+        }
+        if (tiledDetector != null) {
+            tiledDetector.close();
+        }
+        if (splitDetector != null) {
+            splitDetector.close();
+        }
+        if (stillCapture != null) {
+            stillCapture.close();
+        }
+        if (frameRecorder != null) {
+            try {
+                frameRecorder.close();
+            } catch (IOException e) {
+                Log.d(TAG, "Failed to close frame recording");
+            }
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Track the work buffers of the optional stages (ResourceManager.TIER_BUFFER)
+     */
+    private void registerBufferResources() {
+        if (lowLightFusion != null) {
+            registerResource("lowLightFusion", ResourceManager.TIER_BUFFER, new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return lowLightFusion.getBufferBytes();
+                }
+
+                @Override
+                public void release() {
+                    lowLightFusion.release();
+                }
+            });
+            lowLightFusion.setAllocationListener(resourceManager::checkBudget);
+        }
+        if (preprocessor != null) {
+            registerResource("preprocessor", ResourceManager.TIER_BUFFER, new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return preprocessor.getBufferBytes();
+                }
+
+                @Override
+                public void release() {
+                    preprocessor.release();
+                }
+            });
+            preprocessor.setAllocationListener(resourceManager::checkBudget);
+        }
+    }
+
+    /**
+     * Track the detector clients of the tiled, split and still paths; each recreates its clients on next use
+     */
+    private void registerDetectorResources() {
+        if (tiledDetector != null) {
+            registerResource("tiledDetector", ResourceManager.TIER_ACTIVE, new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return tiledDetector.getBufferBytes();
+                }
+
+                @Override
+                public void release() {
+                    tiledDetector.release();
+                }
+            });
+        }
+        if (splitDetector != null) {
+            registerResource("splitDetector", ResourceManager.TIER_ACTIVE, new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return 0;
+                }
+
+                @Override
+                public void release() {
+                    splitDetector.release();
+                }
+            });
+        }
+        if (stillCapture != null) {
+            // 静止画は補助的な経路なので作業バッファと同じ段階で解放する  an optional stage like the work buffers
+            registerResource("stillCapture", ResourceManager.TIER_BUFFER, new ResourceManager.Resource() {
+                @Override
+                public long getBytes() {
+                    return 0;
+                }
+
+                @Override
+                public void release() {
+                    stillCapture.release();
+                }
+            });
+        }
+    }
+
+    private void registerResource(String name, int tier, ResourceManager.Resource resource) {
+        resources.add(resource);
+        resourceManager.register(name, tier, resource);
+    }
+
+    /**
+     * Start recording raw frames into the cache directory (debug.record)
+     *
+     * @param maxMegabytes size limit of the recording
+     */
+    private void startRecording(int maxMegabytes) {
+        File file = new File(getCacheDir(), "scanner-frames-" + System.currentTimeMillis() + ".mbsf");
+        try {
+            frameRecorder = new FrameRecorder(file, maxMegabytes * 1024L * 1024L);
+            metrics.setRecorder(frameRecorder);
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to start frame recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public boolean dispatchTouchEvent(MotionEvent event) {
+        // 画面タッチでアイドル状態から即座に復帰する
+        if (idle) {
+            exitIdle();
+        }
+        return super.dispatchTouchEvent(event);
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onBackPressed() {
+        // キャンセル時もメトリクスを返却する
+        Intent intent = new Intent();
+        intent.putExtra(INTENT_METRICS, metrics.toJson().toString());
+        setResult(Activity.RESULT_CANCELED, intent);
+        super.onBackPressed();
+    }
+
     /**
      * 検出したバーコード情報からIntentを作成する
      * @return intent: バーコード文字列・フォーマットを格納したIntent
@@ -164,8 +546,15 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         try {
             intent.putExtra(INTENT_DETECTED_TEXT, detectedBarcode.getDisplayValue());
             intent.putExtra(INTENT_DETECTED_FORMAT, getBarcodeFormatString(detectedBarcode.getFormat()));
+            if (parseGs1) {
+                JSONObject gs1 = Gs1Parser.parseToJson(detectedBarcode.getRawBytes());
+                if (gs1 != null) {
+                    intent.putExtra(INTENT_DETECTED_GS1, gs1.toString());
+                }
+            }
         } catch (NullPointerException e) {
         }
+        intent.putExtra(INTENT_METRICS, metrics.toJson().toString());
 
         return intent;
     }
@@ -175,7 +564,7 @@ public class BarcodeScannerActivity extends AppCompatActivity {
      * @param format Barcode.FORMAT_XXXX
      * @return formatStr: プラグインで定義するフォーマット文字列
      */
-    private static String getBarcodeFormatString(int format) {
+    static String getBarcodeFormatString(int format) {
         String formatStr = "";
         switch (format) {
             case Barcode.FORMAT_QR_CODE:
@@ -225,16 +614,89 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         return formatStr;
     }
 
+    /**
+     * プラグインのフォーマット文字列から定数 Barcode.FORMAT_XXXX に変換
+     * @param formatStr プラグインで定義するフォーマット文字列
+     * @return format: Barcode.FORMAT_XXXX (不明な場合は Barcode.FORMAT_UNKNOWN)
+     */
+    static int getBarcodeFormat(String formatStr) {
+        switch (formatStr) {
+            case "QR_CODE":
+                return Barcode.FORMAT_QR_CODE;
+            case "EAN_8":
+                return Barcode.FORMAT_EAN_8;
+            case "EAN_13":
+                return Barcode.FORMAT_EAN_13;
+            case "ITF":
+                return Barcode.FORMAT_ITF;
+            case "CODE_128":
+                return Barcode.FORMAT_CODE_128;
+            case "CODE_39":
+                return Barcode.FORMAT_CODE_39;
+            case "CODE_93":
+                return Barcode.FORMAT_CODE_93;
+            case "CODABAR":
+                return Barcode.FORMAT_CODABAR;
+            case "UPC_A":
+                return Barcode.FORMAT_UPC_A;
+            case "UPC_E":
+                return Barcode.FORMAT_UPC_E;
+            case "PDF417":
+                return Barcode.FORMAT_PDF417;
+            case "AZTEC":
+                return Barcode.FORMAT_AZTEC;
+            case "DATA_MATRIX":
+                return Barcode.FORMAT_DATA_MATRIX;
+            default:
+                return Barcode.FORMAT_UNKNOWN;
+        }
+    }
+
+    /**
+     * Format groups of split detection (split.groups)
+     *
+     * Each group is a comma separated list of format names. Defaults to linear (1D) formats and
+     * matrix (2D) formats.
+     */
+    private static int[] getFormatGroups(Intent intent) {
+        String[] groups = intent.getStringArrayExtra("split.groups");
+        if (groups == null) {
+            return new int[]{SplitFormatDetector.LINEAR_FORMATS, SplitFormatDetector.MATRIX_FORMATS};
+        }
+        List<Integer> formatGroups = new ArrayList<>();
+        for (String group : groups) {
+            int formats = 0;
+            for (String name : group.split(",")) {
+                int format = getBarcodeFormat(name.trim());
+                if (format != Barcode.FORMAT_UNKNOWN) {
+                    formats |= format;
+                }
+            }
+            if (formats != 0) {
+                formatGroups.add(formats);
+            }
+        }
+        if (formatGroups.isEmpty()) {
+            return new int[]{Barcode.FORMAT_ALL_FORMATS};
+        }
+        int[] result = new int[formatGroups.size()];
+        for (int i = 0; i < result.length; i ++) {
+            result[i] = formatGroups.get(i);
+        }
+        return result;
+    }
+
     /**
      * Initialize and prepare camera
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     private void initCamera() {
-        cameraProviderFuture = ProcessCameraProvider.getInstance(this);
+        // cameraProviderFuture は onCreate の先頭で取得済み  requested at the start of onCreate
         Executor executor = ContextCompat.getMainExecutor(this);
 
         Runnable listenerRunnable = () -> {
-            ProcessCameraProvider cameraProvider = null;
+            ScanTrace.endAsync("cameraProvider", 0);
+            metrics.onStartupEvent("cameraProvider");
             try {
                 cameraProvider = cameraProviderFuture.get();
                 bindToLifecycle(cameraProvider, executor);
@@ -259,21 +721,78 @@ public class BarcodeScannerActivity extends AppCompatActivity {
 
         // prepare preview
         Preview preview = new Preview.Builder().build();
-        CameraSelector cameraSelector = new CameraSelector.Builder()
-                .requireLensFacing(CameraSelector.LENS_FACING_BACK)
-                .build();
+        // 近距離で最もモジュールあたりの画素数が多いレンズを選ぶ  lens with the most pixels per module up close
+        ScanTrace.begin("selectLens");
+        cameraSelector = lensSelector.select(this, cameraProvider, lens, lensDistance,
+                analysisWidth > 0 && analysisHeight > 0 ? Math.max(analysisWidth, analysisHeight) : 640);
+        ScanTrace.end();
         preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
         // prepare analyzer
-        ScannerAnalyzer analyzer = new ScannerAnalyzer();
+        analyzer = new ScannerAnalyzer();
+        registerResource("frameBuffer", ResourceManager.TIER_ACTIVE, analyzer.frameResources);
+        if (debugPreviewMode != 0) {
+            registerResource("debugPreview", ResourceManager.TIER_CACHE, analyzer.debugResources);
+        }
 
-        ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
-                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
-                .build();
+        ImageAnalysis.Builder analysisBuilder = new ImageAnalysis.Builder()
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
+        if (analysisWidth > 0 && analysisHeight > 0) {
+            // 小さいコード向けに解析解像度を上げる (タイル検出と組み合わせる)
+            analysisBuilder.setTargetResolution(new Size(analysisWidth, analysisHeight));
+        }
+        imageAnalysis = analysisBuilder.build();
         imageAnalysis.setAnalyzer(executor, analyzer);
 
         // bind preview and analyzer to lifecycle
-        cameraProvider.bindToLifecycle(this, cameraSelector, imageAnalysis, preview);
+        ScanTrace.begin("bindToLifecycle");
+        try {
+            camera = bindUseCases(cameraProvider, preview);
+        } catch (IllegalArgumentException e) {
+            // 選んだカメラが使えない場合は従来の背面カメラに戻す  fall back to the default back camera
+            Log.d(TAG, "Failed to bind selected camera: " + e.getMessage());
+            cameraSelector = lensSelector.select(this, cameraProvider, LensSelector.LENS_DEFAULT, lensDistance, 0);
+            camera = bindUseCases(cameraProvider, preview);
+        }
+        ScanTrace.end();
+        metrics.onStartupEvent("bind");
+        previewView.getPreviewStreamState().observe(this, state -> {
+            if (state == PreviewView.StreamState.STREAMING) {
+                metrics.onStartupEvent("firstPreviewFrame");
+            }
+        });
+    }
+
+    /**
+     * Bind preview and analysis, together with the still capture use case of still.enabled when the
+     * camera can stream all three.
+     *
+     * The still capture use case stays bound as long as the scanner is shown, and shares the view
+     * port of the preview so the crop rect of each still is the area shown on screen.
+     *
+     * @throws IllegalArgumentException if the selected camera cannot be used
+     */
+    private Camera bindUseCases(ProcessCameraProvider cameraProvider, Preview preview) {
+        if (stillCapture != null) {
+            UseCaseGroup.Builder group = new UseCaseGroup.Builder()
+                    .addUseCase(preview)
+                    .addUseCase(imageAnalysis)
+                    .addUseCase(stillCapture.getUseCase());
+            ViewPort viewPort = previewView.getViewPort();
+            if (viewPort != null) {
+                group.setViewPort(viewPort);
+            }
+            try {
+                Camera boundCamera = cameraProvider.bindToLifecycle(this, cameraSelector, group.build());
+                stillCapture.setBound(true);
+                return boundCamera;
+            } catch (IllegalArgumentException e) {
+                // 端末がプレビュー+解析+静止画の同時使用に対応していない
+                Log.d(TAG, "ImageCapture cannot be bound: " + e.getMessage());
+                stillCapture.setBound(false);
+            }
+        }
+        return cameraProvider.bindToLifecycle(this, cameraSelector, imageAnalysis, preview);
     }
 
     /**
@@ -288,9 +807,11 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             String detectedText = barcode.getDisplayValue();
             if (detectedText == null) {
                 detectedBarcode = null;
+                onPartialDetection(barcode);
                 continue;
             }
             detected ++;
+            trackCandidate(barcode);
 
             // UI
             if (!oneShot) {
@@ -318,6 +839,7 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             }
             // 検出タイムアウトタイマーを再起動
             restartDetectionTimer();
+            exitIdle();
         }
     }
 
@@ -325,13 +847,108 @@ public class BarcodeScannerActivity extends AppCompatActivity {
      * Analyzer class for scanning barcodes.
      */
 private class ScannerAnalyzer implements ImageAnalysis.Analyzer {
+    private final BarcodeScannerOptions scannerOptions;
     private BarcodeScanner scanner;
+    // 検出中はバッファと検出器を解放しない  buffers and the client are released once no detection runs
+    private int pendingDetections = 0;
+    private boolean releasePending = false;
+    private boolean closed = false;
+
+    // フレーム毎に確保しないよう再利用するバッファ  buffers reused across frames
+    private final FramePipeline pipeline = new FramePipeline();
+    private FrameMetadata frameMetadata;
+    private final ByteBuffer[] planeBuffers = new ByteBuffer[FrameMetadata.PLANE_COUNT];
+    private final int[] fullFrameRect = new int[4];
+    private int roiViewWidth = -1;
+    private int roiViewHeight = -1;
+    private int[] debugPixels;
+    private Bitmap debugBitmap;
+
+    /** Frame buffer and detector client (ResourceManager.TIER_ACTIVE) */
+    final ResourceManager.Resource frameResources = new ResourceManager.Resource() {
+        @Override
+        public long getBytes() {
+            return pipeline.getBufferBytes();
+        }
+
+        @Override
+        public void release() {
+            releaseFrameResources();
+        }
+    };
+
+    /** Debug preview bitmap and pixels (ResourceManager.TIER_CACHE) */
+    final ResourceManager.Resource debugResources = new ResourceManager.Resource() {
+        @Override
+        public long getBytes() {
+            int[] pixels = debugPixels;
+            Bitmap bitmap = debugBitmap;
+            return (pixels != null ? 4L * pixels.length : 0) + (bitmap != null ? bitmap.getAllocationByteCount() : 0);
+        }
+
+        @Override
+        public void release() {
+            if (debugBitmap != null) {
+                debugPreviewView.setImageBitmap(null);
+                debugBitmap.recycle();
+                debugBitmap = null;
+            }
+            debugPixels = null;
+        }
+    };
 
     ScannerAnalyzer() {
-        BarcodeScannerOptions options = new BarcodeScannerOptions.Builder()
+        scannerOptions = new BarcodeScannerOptions.Builder()
                 .setBarcodeFormats(Barcode.FORMAT_ALL_FORMATS)
                 .build();
-        scanner = BarcodeScanning.getClient(options);
+        scanner = BarcodeScanning.getClient(scannerOptions);
+        // 検出前の処理は FramePipeline にまとめ、記録したフレームの再生でも同じ順で実行する
+        // stages in front of the detector live in the pipeline, so replayed recordings run the same path
+        pipeline.setRecorder(frameRecorder);
+        pipeline.setQualityGate(qualityGate);
+        if (frameTap != null) {
+            pipeline.setTap(frame -> frameTap.offer(frame.getNv21(), frame.getMetadata().getWidth(),
+                    frame.getRoi(), frame.getMetadata().getRotation(), frame.getTimestampNanos()));
+        }
+        pipeline.setLowLightFusion(lowLightFusion);
+        pipeline.setPreprocessor(preprocessor);
+        pipeline.setTracer(new FramePipeline.Tracer() {
+            @Override
+            public void begin(String section) {
+                ScanTrace.begin(section);
+            }
+
+            @Override
+            public void end() {
+                ScanTrace.end();
+            }
+        });
+        pipeline.setAllocationListener(resourceManager::checkBudget);
+    }
+
+    /**
+     * Drop the frame buffer and close the detector client; both are recreated by the next frame.
+     * Deferred until running detections complete, as they still read the buffer.
+     */
+    private void releaseFrameResources() {
+        if (pendingDetections > 0) {
+            releasePending = true;
+            return;
+        }
+        releasePending = false;
+        pipeline.release();
+        if (scanner != null) {
+            scanner.close();
+            scanner = null;
+        }
+    }
+
+    /**
+     * Close the detector client for good (onDestroy)
+     */
+    void close() {
+        closed = true;
+        releaseFrameResources();
     }
 
     /**
@@ -341,73 +958,502 @@ private class ScannerAnalyzer implements ImageAnalysis.Analyzer {
      */
     @Override
     public void analyze(@NonNull ImageProxy imageProxy) {
+        ScanTrace.begin("analyze");
+        try {
+            analyzeFrame(imageProxy);
+        } finally {
+            ScanTrace.end();
+        }
+    }
+
+    private void analyzeFrame(ImageProxy imageProxy) {
+        if (closed) {
+            imageProxy.close();
+            return;
+        }
+        if (metrics.framesReceived == 0) {
+            metrics.onStartupEvent("firstAnalysisFrame");
+        }
+        metrics.framesReceived ++;
+        if (idle) {
+            // アイドル中は idle.interval 毎に1フレームだけ解析する
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastIdleAnalysisTime < idleInterval) {
+                metrics.framesSkippedIdle ++;
+                imageProxy.close();
+                return;
+            }
+            lastIdleAnalysisTime = now;
+        }
         Image mediaImage = imageProxy.getImage();
 
-        if (mediaImage != null) {
-            ByteBuffer imageBuffer = ByteBuffer.allocate(mediaImage.getHeight() * mediaImage.getWidth() * 4);
-            mediaImage.getPlanes()[0].getBuffer().rewind();
-            byte[] bytes = new byte[mediaImage.getPlanes()[0].getBuffer().remaining()];
-            mediaImage.getPlanes()[0].getBuffer().get(bytes);
-            imageBuffer.put(bytes);
-           InputImage inputImage = InputImage.fromByteBuffer(imageBuffer, mediaImage.getWidth(), mediaImage.getHeight(), 0, InputImage.IMAGE_FORMAT_NV21);
-
-            
-            // Process image for barcode detection
-            scanner.process(inputImage)
-                    .addOnSuccessListener(barcodes -> {
-                        onBarcodeDetected(barcodes);
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Barcode detection failed: " + e.getMessage());
-                    })
-                    .addOnCompleteListener(task -> {
+        if (mediaImage == null) {
+            imageProxy.close();
+            return;
+        }
+        if (motionGate != null && !motionGate.accept()) {
+            // 端末が大きく動いている間のフレームはブレているため変換もせずに捨てる
+            imageProxy.close();
+            return;
+        }
+        int width = mediaImage.getWidth();
+        int height = mediaImage.getHeight();
+        int rotation = imageProxy.getImageInfo().getRotationDegrees();
+        Image.Plane[] planes = mediaImage.getPlanes();
+        if (frameMetadata == null || !frameMetadata.isSameGeometry(width, height, rotation)
+                || frameMetadata.getRowStride(0) != planes[0].getRowStride()) {
+            frameMetadata = createFrameMetadata(planes, width, height, rotation);
+        }
+        if (previewView.getWidth() != roiViewWidth || previewView.getHeight() != roiViewHeight) {
+            updateRoi();
+        }
+        for (int i = 0; i < FrameMetadata.PLANE_COUNT; i ++) {
+            planeBuffers[i] = planes[i].getBuffer();
+        }
+        boolean accepted = pipeline.process(frameMetadata, imageProxy.getImageInfo().getTimestamp(), planeBuffers);
+        if (qualityGate != null) {
+            ScanTrace.counter("sharpness", (long) qualityGate.getLastScore());
+        }
+        if (!accepted) {
+            imageProxy.close();
+            return;
+        }
+        if (lowLightFusion != null) {
+            ScanTrace.counter("luminance", lowLightFusion.getLastLuminance());
+        }
+        if (debugPreviewMode != 0) {
+            updateDebugPreview();
+        }
+        metrics.framesAnalyzed ++;
+        ScanTrace.counter("framesAnalyzed", metrics.framesAnalyzed);
+
+        // Process image for barcode detection
+        long detectionStart = SystemClock.elapsedRealtimeNanos();
+        int traceCookie = (int) metrics.framesAnalyzed;
+        ScanTrace.beginAsync("detect", traceCookie);
+        pendingDetections ++;
+        boolean tiled = tiledDetector != null && !(tilingCompare && metrics.framesAnalyzed % 2 == 0);
+        Task<List<Barcode>> detection = detect(pipeline.getNv21(), width, height, rotation, tiled);
+        if (preprocessor != null) {
+            // 通常の検出で見つからなかった場合のみ前処理して再検出する  retry only when the plain pass fails
+            detection = detection.continueWithTask(task -> {
+                if (!task.isSuccessful() || hasAcceptedBarcode(task.getResult())) {
+                    return task;
+                }
+                byte[] preprocessed = pipeline.retry();
+                if (preprocessed == null) {
+                    return task;
+                }
+                return detect(preprocessed, width, height, rotation, tiled).addOnSuccessListener(barcodes -> {
+                    if (hasAcceptedBarcode(barcodes)) {
+                        preprocessor.onDetected();
+                    }
+                });
+            });
+        }
+        detection
+                .addOnSuccessListener(barcodes -> {
+                    onBarcodeDetected(barcodes);
+                    if (stillCapture != null && !isFinishing()
+                            && stillCapture.onFrame(detectedBarcode != null, pipeline.getNv21(), width, pipeline.getRoi())) {
+                        captureStill();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Barcode detection failed: " + e.getMessage());
+                })
+                .addOnCompleteListener(task -> {
+                    ScanTrace.endAsync("detect", traceCookie);
+                    long detectionNanos = SystemClock.elapsedRealtimeNanos() - detectionStart;
+                    metrics.onDetectionComplete(detectionNanos);
+                    if (tilingCompare) {
+                        metrics.onComparedDetection(tiled ? "tiled" : "single", detectionNanos);
+                    }
+                    metrics.onStartupEvent("firstDetection");
+                    if (splitDetector != null) {
+                        // 遅いグループがフレームを読み終えるまで解放しない  wait for the slower groups
+                        splitDetector.getPending().addOnCompleteListener(pending -> imageProxy.close());
+                    } else {
                         imageProxy.close();
-                    });
+                    }
+                    pendingDetections --;
+                    if (releasePending) {
+                        releaseFrameResources();
+                    }
+                });
+    }
+
+    /**
+     * Run the detector on a NV21 frame.
+     *
+     * The buffer must stay unchanged until the returned task completes.
+     *
+     * @param tiled use the tiled detector (false on the full-frame frames of tiling.compare)
+     */
+    private Task<List<Barcode>> detect(byte[] nv21, int width, int height, int rotation, boolean tiled) {
+        if (tiled) {
+            return tiledDetector.process(nv21, frameMetadata);
+        }
+        if (splitDetector != null) {
+            return splitDetector.process(nv21, width, height, rotation, this::hasAcceptedBarcode);
+        }
+        if (scanner == null) {
+            // メモリ不足で閉じた後の最初のフレーム  first frame after a trim closed the client
+            scanner = BarcodeScanning.getClient(scannerOptions);
         }
+        // 回転はピクセルを回さずメタデータとして検出器に渡す  rotation is passed as metadata
+        return scanner.process(InputImage.fromByteArray(nv21, width, height, rotation, InputImage.IMAGE_FORMAT_NV21));
+    }
+
+    /**
+     * @return true if a barcode would be accepted by {@link #onBarcodeDetected(List)}
+     */
+    private boolean hasAcceptedBarcode(List<Barcode> barcodes) {
+        for (Barcode barcode : barcodes) {
+            if (barcode.getDisplayValue() != null && (scanRules.isEmpty() || scanRules.accept(barcode))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describe a new frame size, rotation or plane layout.
+     */
+    private FrameMetadata createFrameMetadata(Image.Plane[] planes, int width, int height, int rotation) {
+        FrameMetadata.Builder builder = new FrameMetadata.Builder()
+                .setWidth(width)
+                .setHeight(height)
+                .setRotation(rotation);
+        for (int i = 0; i < FrameMetadata.PLANE_COUNT; i ++) {
+            builder.setPlaneStrides(i, planes[i].getRowStride(), planes[i].getPixelStride());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Map the detection area on screen to the frame buffer, taking the rotation into account.
+     */
+    private void updateRoi() {
+        roiViewWidth = previewView.getWidth();
+        roiViewHeight = previewView.getHeight();
+        float[] viewRect = {
+                detectionArea.getLeft(), detectionArea.getTop(),
+                detectionArea.getRight(), detectionArea.getBottom()};
+        pipeline.setViewRoi(viewRect, roiViewWidth, roiViewHeight);
+    }
+
+    /**
+     * Show the luminance sent to the detector (debug.preview).
+     *
+     * The thumbnail is rotated by the view instead of rotating pixels.
+     */
+    private void updateDebugPreview() {
+        int[] rect = pipeline.getRoi();
+        if (debugPreviewMode != 1) {
+            rect = fullFrameRect;
+            rect[2] = frameMetadata.getWidth();
+            rect[3] = frameMetadata.getHeight();
+        }
+        int size = (rect[2] - rect[0]) * (rect[3] - rect[1]);
+        if (size <= 0) {
+            return;
+        }
+        ScanTrace.begin("debugPreview");
+        boolean allocated = false;
+        if (debugPixels == null || debugPixels.length < size) {
+            debugPixels = new int[size];
+            allocated = true;
+        }
+        Bitmap bitmap = ImageUtils.luminanceToBitmap(pipeline.getNv21(), frameMetadata.getWidth(), rect, debugPixels, debugBitmap);
+        if (bitmap != debugBitmap) {
+            debugBitmap = bitmap;
+            debugPreviewView.setImageBitmap(bitmap);
+            allocated = true;
+        } else {
+            debugPreviewView.invalidate();
+        }
+        debugPreviewView.setRotation(frameMetadata.getRotation());
+        ScanTrace.end();
+        if (allocated) {
+            resourceManager.checkBudget();
+        }
+    }
+
+    /**
+     * Take a full-resolution still of the detection area (still.enabled).
+     *
+     * Used when a probable code stays undecoded on the analysis stream, e.g. dense PDF417
+     * or high-version QR codes which need more pixels than the analysis resolution has.
+     */
+    private void captureStill() {
+        if (camera == null) {
+            return;
+        }
+        float[] viewRect = {
+                detectionArea.getLeft(), detectionArea.getTop(),
+                detectionArea.getRight(), detectionArea.getBottom()};
+        stillCapture.capture(camera.getCameraControl(), previewView, viewRect,
+                ContextCompat.getMainExecutor(BarcodeScannerActivity.this), barcodes -> {
+                    if (!isFinishing()) {
+                        onBarcodeDetected(barcodes);
+                    }
+                });
     }
 
     /**
      * Handles the successful detection of barcodes in the captured image.
      *
+     * Barcodes rejected by {@link ScanRules} are dropped here, so only accepted codes
+     * update the UI and are returned to the plugin.
+     *
      * @param barcodes List of detected barcodes.
      */
     private void onBarcodeDetected(List<Barcode> barcodes) {
-        // Perform actions based on detected barcodes
-        for (Barcode barcode : barcodes) {
-            Log.d(TAG, "Detected barcode: " + barcode.getRawValue());
-            // Handle each detected barcode as needed
-            // For example, you can extract the barcode information and take appropriate actions
+        ScanTrace.begin("updateUi");
+        try {
+            if (fountainDecoder != null) {
+                onChunksDetected(barcodes);
+                return;
+            }
+            if (scanRules.isEmpty()) {
+                onDetectionTaskSuccess(barcodes);
+                return;
+            }
+            List<Barcode> accepted = new ArrayList<>(barcodes.size());
+            for (Barcode barcode : barcodes) {
+                if (scanRules.accept(barcode)) {
+                    accepted.add(barcode);
+                } else {
+                    codesRejected ++;
+                    onPartialDetection(barcode);
+                }
+            }
+            onDetectionTaskSuccess(accepted);
+        } finally {
+            ScanTrace.end();
         }
     }
 }
 
+    /**
+     * Feed animated QR chunks to the assembler (receive.enabled)
+     *
+     * Shows the progress on the detected text button and returns the message once it is complete.
+     */
+    private void onChunksDetected(List<Barcode> barcodes) {
+        boolean progressed = false;
+        for (Barcode barcode : barcodes) {
+            FountainChunk chunk = FountainChunk.parse(barcode.getRawValue());
+            if (chunk != null && fountainDecoder.add(chunk)) {
+                progressed = true;
+            }
+        }
+        if (!progressed) {
+            return;
+        }
+        if (fountainDecoder.isComplete()) {
+            finishReceive();
+            return;
+        }
+        detectedTextButton.setText(String.format(Locale.US, "%d%%  %.1f KB/s",
+                (int) (fountainDecoder.getProgress() * 100), fountainDecoder.getBytesPerSecond() / 1024));
+        detectedTextButton.setVisibility(View.VISIBLE);
+        // 受信中はタイムアウトさせない
+        restartDetectionTimer();
+        exitIdle();
+    }
+
+    /**
+     * Write the received message into the cache directory and return its path to the plugin
+     */
+    private void finishReceive() {
+        File file = new File(getCacheDir(), "received-" + System.currentTimeMillis() + ".bin");
+        Intent intent = new Intent();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            fountainDecoder.writeMessage(out);
+            intent.putExtra(INTENT_RECEIVED_FILE, file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to write received message: " + e.getMessage());
+            file.delete();
+        }
+        intent.putExtra(INTENT_METRICS, metrics.toJson().toString());
+        setResult(intent.hasExtra(INTENT_RECEIVED_FILE) ? Activity.RESULT_OK : Activity.RESULT_CANCELED, intent);
+        finish();
+    }
 
     private boolean isEnableTimeoutPrompt() {
         return showTimeoutPrompt && timeoutPromptSpan >= 0;
     }
 
+    private long getTimeoutPromptDelay() {
+        return Math.max(timeoutPromptSpan * 1000, 400);
+    }
+
+    /**
+     * Start the timeout prompt timer and the session deadline (deadline.timeout)
+     */
     private void startDetectionTimer () {
-        if (!isEnableTimeoutPrompt()) {
-            return;
+        if (isEnableTimeoutPrompt()) {
+            lastDetectionTime = SystemClock.uptimeMillis();
+            timerHandler.postDelayed(timeoutPromptRunnable, getTimeoutPromptDelay());
+        }
+        if (deadlineMillis > 0) {
+            timerHandler.postDelayed(deadlineRunnable, deadlineMillis);
         }
-        timeoutPromptHandler = new Handler();
-        timeoutPromptRunnable = () -> timeoutPromptView.setVisibility(View.VISIBLE);
-        timeoutPromptHandler.postDelayed(timeoutPromptRunnable, Math.max(timeoutPromptSpan * 1000, 400));
     }
 
+    /**
+     * Postpone the timeout prompt; called on every detection, so it only records the time
+     */
     private void restartDetectionTimer () {
         if (!isEnableTimeoutPrompt()) {
             return;
         }
-        if (timeoutPromptHandler != null) {
-            timeoutPromptHandler.removeCallbacks(timeoutPromptRunnable);
+        lastDetectionTime = SystemClock.uptimeMillis();
+        if (timeoutPromptView.getVisibility() == View.VISIBLE) {
+            timeoutPromptView.setVisibility(View.INVISIBLE);
+            timerHandler.postDelayed(timeoutPromptRunnable, getTimeoutPromptDelay());
+        }
+    }
+
+    private void onTimeoutPrompt() {
+        long remaining = lastDetectionTime + getTimeoutPromptDelay() - SystemClock.uptimeMillis();
+        if (remaining > 0) {
+            // 途中で検出があったので残り時間だけ待ち直す  detected meanwhile, wait for the rest
+            timerHandler.postDelayed(timeoutPromptRunnable, remaining);
+            return;
+        }
+        timeoutPromptView.setVisibility(View.VISIBLE);
+        // タイムアウト後は誰も狙っていないとみなしアイドル状態へ
+        enterIdle();
+    }
+
+    /**
+     * Count detections of each accepted code for the deadline result
+     */
+    private void trackCandidate(Barcode barcode) {
+        codesDetected ++;
+        if (deadlineMillis <= 0) {
+            return;
+        }
+        String key = barcode.getFormat() + ":" + barcode.getDisplayValue();
+        Integer count = candidateCounts.get(key);
+        if (count == null) {
+            if (candidateCounts.size() >= MAX_CANDIDATES) {
+                return;
+            }
+            count = 0;
+        }
+        count ++;
+        candidateCounts.put(key, count);
+        if (count > bestCandidateCount) {
+            bestCandidate = barcode;
+            bestCandidateCount = count;
         }
-        timeoutPromptView.setVisibility(View.INVISIBLE);
-        startDetectionTimer();
     }
 
     /**
-     * Get resource id
+     * Remember where a code was found but not accepted (unreadable or rejected by the rules)
+     */
+    private void onPartialDetection(Barcode barcode) {
+        Rect box = getBoundingBox(barcode);
+        if (deadlineMillis > 0 && box != null) {
+            partialRegion = box;
+        }
+    }
+
+    /**
+     * @return bounding box of a detected barcode in full-frame upright coordinates, also for tiled detection
+     */
+    private Rect getBoundingBox(Barcode barcode) {
+        return tiledDetector != null ? tiledDetector.getBoundingBox(barcode) : barcode.getBoundingBox();
+    }
+
+    /**
+     * Session deadline passed: return the code detected most often, or why nothing was found
+     */
+    private void onDeadline() {
+        if (isFinishing()) {
+            return;
+        }
+        Intent intent;
+        if (bestCandidate != null) {
+            detectedBarcode = bestCandidate;
+            intent = getResultIntent();
+            intent.putExtra(INTENT_TIMED_OUT, true);
+            setResult(Activity.RESULT_OK, intent);
+        } else {
+            intent = new Intent();
+            intent.putExtra(INTENT_TIMED_OUT, true);
+            intent.putExtra(INTENT_NOT_FOUND, getNotFoundDiagnostics().toString());
+            intent.putExtra(INTENT_METRICS, metrics.toJson().toString());
+            setResult(Activity.RESULT_CANCELED, intent);
+        }
+        finish();
+    }
+
+    private JSONObject getNotFoundDiagnostics() {
+        JSONObject diagnostics = new JSONObject();
+        try {
+            diagnostics.put("framesAnalyzed", metrics.framesAnalyzed);
+            diagnostics.put("codesDetected", codesDetected);
+            diagnostics.put("codesRejected", codesRejected);
+            if (partialRegion != null) {
+                diagnostics.put("partialRegion", new JSONArray(Arrays.asList(
+                        partialRegion.left, partialRegion.top, partialRegion.right, partialRegion.bottom)));
+            }
+            if (qualityGate != null) {
+                diagnostics.put("sharpnessMean", qualityGate.getMeanPassedScore());
+            }
+            if (lowLightFusion != null) {
+                diagnostics.put("luminance", lowLightFusion.getLastLuminance());
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to create JSONObject");
+        }
+        return diagnostics;
+    }
+
+    /**
+     * Enter idle state: drop the analysis rate to idle.interval, or unbind the analyzer if idle.unbind
+     */
+    private void enterIdle() {
+        if (!idleEnabled || idle) {
+            return;
+        }
+        idle = true;
+        if (idleMonitor != null) {
+            // タイムアウトで入った場合も動きで復帰させる  resume on motion also after a timeout
+            idleMonitor.markIdle();
+        }
+        lastIdleAnalysisTime = 0;
+        metrics.onIdle();
+        if (idleUnbind && cameraProvider != null && imageAnalysis != null) {
+            cameraProvider.unbind(imageAnalysis);
+        }
+    }
+
+    /**
+     * Leave idle state and resume analysis at full rate
+     */
+    private void exitIdle() {
+        if (idleMonitor != null) {
+            idleMonitor.reset();
+        }
+        if (!idle) {
+            return;
+        }
+        idle = false;
+        metrics.onActive();
+        if (idleUnbind && cameraProvider != null && imageAnalysis != null
+                && !cameraProvider.isBound(imageAnalysis)) {
+            cameraProvider.bindToLifecycle(this, cameraSelector, imageAnalysis);
+        }
+    }
+
+    /**
+     * Get resource id (resolved once per process; getIdentifier is a reflective lookup)
      *
      * @param res        resource object
      * @param name       resource name
@@ -416,6 +1462,14 @@ private class ScannerAnalyzer implements ImageAnalysis.Analyzer {
      * @return resource id
      */
     private static int getResourceId(Resources res, String name, String defType, String defPackage) {
-        return res.getIdentifier(name, defType, defPackage);
+        String key = defType + "/" + name;
+        Integer id = resourceIds.get(key);
+        if (id == null) {
+            id = res.getIdentifier(name, defType, defPackage);
+            if (id != 0) {
+                resourceIds.put(key, id);
+            }
+        }
+        return id;
     }
 }
@@ -47,29 +47,72 @@ import java.nio.ByteBuffer;
 public class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
-  /** Converts NV21 format byte buffer to bitmap. */
+  /** Reused work objects; guarded by the class lock. */
+  private static final Matrix rotationMatrix = new Matrix();
+  private static byte[] rotationBuffer;
+
+  /**
+   * Converts NV21 format byte buffer to bitmap.
+   *
+   * <p>The NV21 data is rotated upright into a reused buffer before JPEG encoding, so no rotated
+   * Bitmap copy is created.
+   */
+  @Nullable
+  public static synchronized Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
+    ScanTrace.begin("BitmapUtils.getBitmap");
+    try {
+      return nv21ToBitmap(data, metadata);
+    } finally {
+      ScanTrace.end();
+    }
+  }
+
   @Nullable
-  public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
+  private static Bitmap nv21ToBitmap(ByteBuffer data, FrameMetadata metadata) {
     data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
+    byte[] imageInBuffer;
+    if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.limit()) {
+      imageInBuffer = data.array();
+    } else {
+      imageInBuffer = new byte[data.limit()];
+      data.get(imageInBuffer, 0, imageInBuffer.length);
+    }
+    int rotation = metadata.getRotation();
+    if (rotation != 0) {
+      if (rotationBuffer == null || rotationBuffer.length != imageInBuffer.length) {
+        rotationBuffer = new byte[imageInBuffer.length];
+      }
+      ImageUtils.rotateNV21(
+          imageInBuffer, metadata.getWidth(), metadata.getHeight(), rotation, rotationBuffer);
+      imageInBuffer = rotationBuffer;
+    }
+    int width = metadata.getUprightWidth();
+    int height = metadata.getUprightHeight();
     try {
-      YuvImage image =
-          new YuvImage(
-              imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
+      YuvImage image = new YuvImage(imageInBuffer, ImageFormat.NV21, width, height, null);
       ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
+      image.compressToJpeg(new Rect(0, 0, width, height), 80, stream);
 
       Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
 
       stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
+      return bmp;
     } catch (Exception e) {
       Log.e("VisionProcessorBase", "Error: " + e.getMessage());
     }
     return null;
   }
 
+  /** Drops the reused rotation buffer. */
+  public static synchronized void releaseBuffers() {
+    rotationBuffer = null;
+  }
+
+  /** Returns the bytes of the reused rotation buffer. */
+  public static synchronized long getBufferBytes() {
+    return rotationBuffer != null ? rotationBuffer.length : 0;
+  }
+
   /** Converts a YUV_420_888 image from CameraX API to a bitmap. */
   @RequiresApi(VERSION_CODES.LOLLIPOP)
   @Nullable
@@ -87,9 +130,14 @@ public class BitmapUtils {
   }
 
   /** Rotates a bitmap if it is converted from a bytebuffer. */
-  private static Bitmap rotateBitmap(
+  private static synchronized Bitmap rotateBitmap(
       Bitmap bitmap, int rotationDegrees, boolean flipX, boolean flipY) {
-    Matrix matrix = new Matrix();
+    if (rotationDegrees == 0 && !flipX && !flipY) {
+      // Nothing to do; avoid a full Bitmap copy.
+      return bitmap;
+    }
+    Matrix matrix = rotationMatrix;
+    matrix.reset();
 
     // Rotate the image back to straight.
     matrix.postRotate(rotationDegrees);
@@ -109,6 +157,17 @@ public class BitmapUtils {
   @Nullable
   public static Bitmap getBitmapFromContentUri(ContentResolver contentResolver, Uri imageUri)
       throws IOException {
+    ScanTrace.begin("BitmapUtils.getBitmapFromContentUri");
+    try {
+      return decodeContentUri(contentResolver, imageUri);
+    } finally {
+      ScanTrace.end();
+    }
+  }
+
+  @Nullable
+  private static Bitmap decodeContentUri(ContentResolver contentResolver, Uri imageUri)
+      throws IOException {
     Bitmap decodedBitmap = MediaStore.Images.Media.getBitmap(contentResolver, imageUri);
     if (decodedBitmap == null) {
       return null;
@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * One fountain-coded chunk of an animated QR transfer
+ *
+ * Text form: {@code "MBF:" + base64(chunk)}, where chunk is (big endian)
+ * <pre>
+ * u32 transferId   random per transfer
+ * u32 length       message length in bytes
+ * u16 blockSize    bytes per block (the last block is zero padded)
+ * u32 checksum     CRC-32 of the message
+ * u32 seq          chunk sequence number
+ * u8[blockSize]    XOR of the blocks selected by {@link #selectBlocks}
+ * </pre>
+ *
+ * Chunks with {@code seq < blockCount} carry block {@code seq} as is. Later chunks carry the XOR
+ * of a pseudo random set of blocks (LT code, ideal soliton degrees capped at {@link #MAX_DEGREE}),
+ * chosen with a mulberry32 generator seeded from the transfer id and sequence number, so any
+ * sufficiently large set of chunks reconstructs the message regardless of which frames were missed.
+ * Has no Android dependency.
+ */
+public class FountainChunk {
+
+    public static final String PREFIX = "MBF:";
+    public static final int HEADER_SIZE = 18;
+    public static final int MAX_DEGREE = 64;
+
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length(); i ++) {
+            BASE64_VALUES[BASE64.charAt(i)] = i;
+        }
+    }
+
+    public final int transferId;
+    public final int length;
+    public final int blockSize;
+    public final int checksum;
+    public final int seq;
+    public final byte[] data;
+
+    public FountainChunk(int transferId, int length, int blockSize, int checksum, int seq, byte[] data) {
+        this.transferId = transferId;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.checksum = checksum;
+        this.seq = seq;
+        this.data = data;
+    }
+
+    public int getBlockCount() {
+        return (length + blockSize - 1) / blockSize;
+    }
+
+    /**
+     * @param text barcode text
+     * @return chunk, or null if the text is not a valid chunk
+     */
+    public static FountainChunk parse(String text) {
+        if (text == null || !text.startsWith(PREFIX)) {
+            return null;
+        }
+        byte[] bytes = decodeBase64(text, PREFIX.length());
+        if (bytes == null || bytes.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        int transferId = buffer.getInt();
+        int length = buffer.getInt();
+        int blockSize = buffer.getShort() & 0xffff;
+        int checksum = buffer.getInt();
+        int seq = buffer.getInt();
+        if (length <= 0 || blockSize == 0 || bytes.length - HEADER_SIZE != blockSize) {
+            return null;
+        }
+        byte[] data = new byte[blockSize];
+        buffer.get(data);
+        return new FountainChunk(transferId, length, blockSize, checksum, seq, data);
+    }
+
+    /**
+     * @return text form to be encoded into a QR code
+     */
+    public String toText() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + blockSize).order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(transferId).putInt(length).putShort((short) blockSize).putInt(checksum).putInt(seq).put(data);
+        return PREFIX + encodeBase64(buffer.array());
+    }
+
+    /**
+     * Blocks combined into a chunk
+     *
+     * @param transferId transfer id
+     * @param seq        chunk sequence number
+     * @param blockCount number of blocks of the message
+     * @param out        block indices, at least {@link #MAX_DEGREE} long
+     * @return number of blocks (degree)
+     */
+    public static int selectBlocks(int transferId, int seq, int blockCount, int[] out) {
+        if (seq >= 0 && seq < blockCount) {
+            out[0] = seq;
+            return 1;
+        }
+        int[] state = {transferId ^ (seq * 0x9e3779b9)};
+        // 理想ソリトン分布の逆関数  inverse CDF of the ideal soliton distribution
+        // (四則演算のみ: JavaScript の送信側と同じ値になる  only exactly rounded operations, so a
+        // JavaScript sender selects the same degree)
+        double u = (mulberry32(state) & 0xffffffffL) / 4294967296.0;
+        int degree;
+        if (u < 1.0 / blockCount) {
+            degree = 1;
+        } else {
+            degree = (int) Math.floor(1 / (1 + 1.0 / blockCount - u)) + 1;
+        }
+        degree = Math.min(degree, Math.min(blockCount, MAX_DEGREE));
+        int n = 0;
+        while (n < degree) {
+            int index = (int) (((mulberry32(state) & 0xffffffffL) * blockCount) >>> 32);
+            boolean duplicate = false;
+            for (int i = 0; i < n; i ++) {
+                if (out[i] == index) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) {
+                out[n ++] = index;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * mulberry32 (same results as the usual JavaScript implementation with Math.imul)
+     */
+    private static int mulberry32(int[] state) {
+        int t = state[0] += 0x6d2b79f5;
+        t = (t ^ (t >>> 15)) * (t | 1);
+        t ^= t + (t ^ (t >>> 7)) * (t | 61);
+        return t ^ (t >>> 14);
+    }
+
+    private static byte[] decodeBase64(String text, int offset) {
+        int end = text.length();
+        while (end > offset && text.charAt(end - 1) == '=') {
+            end --;
+        }
+        int chars = end - offset;
+        if (chars % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[chars * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int n = 0;
+        for (int i = offset; i < end; i ++) {
+            char c = text.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[n ++] = (byte) (bits >> bitCount);
+            }
+        }
+        return out;
+    }
+
+    private static String encodeBase64(byte[] bytes) {
+        StringBuilder text = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int b0 = bytes[i] & 0xff;
+            int b1 = i + 1 < bytes.length ? bytes[i + 1] & 0xff : 0;
+            int b2 = i + 2 < bytes.length ? bytes[i + 2] & 0xff : 0;
+            text.append(BASE64.charAt(b0 >> 2));
+            text.append(BASE64.charAt(((b0 & 3) << 4) | (b1 >> 4)));
+            text.append(i + 1 < bytes.length ? BASE64.charAt(((b1 & 15) << 2) | (b2 >> 6)) : '=');
+            text.append(i + 2 < bytes.length ? BASE64.charAt(b2 & 63) : '=');
+        }
+        return text.toString();
+    }
+}
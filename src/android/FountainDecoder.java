@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Assembles a message from {@link FountainChunk}s received in any order
+ *
+ * Solved blocks are written into the message buffer; chunks combining several unknown blocks are
+ * kept, reduced by the known blocks, until peeling solves them. Memory is bounded by the message
+ * size plus at most as many pending chunks as the message has blocks (higher-degree chunks are
+ * evicted first); chunks with blocks smaller than {@link #MIN_BLOCK_SIZE} or more than
+ * {@link #MAX_BLOCK_COUNT} blocks are rejected, so a forged header cannot make that large. A chunk
+ * from another transfer restarts the assembly. Has no Android dependency.
+ */
+public class FountainDecoder {
+
+    public static final int MIN_BLOCK_SIZE = 16;
+    public static final int MAX_BLOCK_COUNT = 4096;
+
+    private final int maxBytes;
+
+    private int transferId;
+    private int length = 0;
+    private int blockSize;
+    private int checksum;
+    private int blockCount = 0;
+    private byte[] message;
+    private boolean[] known;
+    private int knownCount;
+    private boolean complete = false;
+
+    // 未解決のチャンク  pending chunks, reduced by the known blocks
+    private int[][] pendingBlocks;
+    private int[] pendingDegree;
+    private byte[][] pendingData;
+    private int pendingCount;
+    private int[] solvedQueue;
+    private final int[] selected = new int[FountainChunk.MAX_DEGREE];
+    private final Set<Integer> seenSeqs = new HashSet<>();
+
+    private long startNanos = -1;
+    private long chunksReceived = 0;
+    private long chunksDuplicate = 0;
+    private long chunksRejected = 0;
+    private long checksumErrors = 0;
+
+    /**
+     * @param maxBytes maximum accepted message length
+     */
+    public FountainDecoder(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Add a received chunk
+     *
+     * @return true if the chunk solved at least one block or was kept for later
+     */
+    public boolean add(FountainChunk chunk) {
+        if (startNanos < 0) {
+            startNanos = System.nanoTime();
+        }
+        chunksReceived ++;
+        if (chunk.length > maxBytes || chunk.length <= 0 || chunk.blockSize < MIN_BLOCK_SIZE
+                || chunk.data.length != chunk.blockSize || chunk.getBlockCount() > MAX_BLOCK_COUNT) {
+            chunksRejected ++;
+            return false;
+        }
+        if (message == null || chunk.transferId != transferId || chunk.length != length
+                || chunk.blockSize != blockSize || chunk.checksum != checksum) {
+            start(chunk);
+        }
+        if (complete) {
+            return false;
+        }
+        if (seenSeqs.contains(chunk.seq)) {
+            chunksDuplicate ++;
+            return false;
+        }
+        if (seenSeqs.size() < 4 * blockCount + 64) {
+            seenSeqs.add(chunk.seq);
+        }
+
+        int degree = FountainChunk.selectBlocks(chunk.transferId, chunk.seq, blockCount, selected);
+        // 既知のブロックを取り除く  remove the known blocks
+        byte[] data = null;
+        int unknown = 0;
+        for (int i = 0; i < degree; i ++) {
+            int block = selected[i];
+            if (known[block]) {
+                if (data == null) {
+                    data = chunk.data.clone();
+                }
+                xor(message, block * blockSize, data);
+            } else {
+                selected[unknown ++] = block;
+            }
+        }
+        if (data == null) {
+            data = chunk.data;
+        }
+        if (unknown == 0) {
+            chunksDuplicate ++;
+            return false;
+        }
+        if (unknown == 1) {
+            solve(selected[0], data);
+            return true;
+        }
+        return keep(data, unknown);
+    }
+
+    private void start(FountainChunk chunk) {
+        transferId = chunk.transferId;
+        length = chunk.length;
+        blockSize = chunk.blockSize;
+        checksum = chunk.checksum;
+        blockCount = chunk.getBlockCount();
+        message = new byte[blockCount * blockSize];
+        known = new boolean[blockCount];
+        knownCount = 0;
+        complete = false;
+        pendingBlocks = new int[blockCount][];
+        pendingDegree = new int[blockCount];
+        pendingData = new byte[blockCount][];
+        pendingCount = 0;
+        solvedQueue = new int[blockCount];
+        seenSeqs.clear();
+    }
+
+    private boolean keep(byte[] data, int degree) {
+        int slot = pendingCount;
+        if (pendingCount == pendingBlocks.length) {
+            // 次数の最も高いチャンクを追い出す  evict the chunk with the highest degree
+            slot = 0;
+            for (int i = 1; i < pendingCount; i ++) {
+                if (pendingDegree[i] > pendingDegree[slot]) {
+                    slot = i;
+                }
+            }
+            if (pendingDegree[slot] <= degree) {
+                return false;
+            }
+        } else {
+            pendingCount ++;
+        }
+        if (pendingBlocks[slot] == null) {
+            pendingBlocks[slot] = new int[FountainChunk.MAX_DEGREE];
+            pendingData[slot] = new byte[blockSize];
+        }
+        System.arraycopy(selected, 0, pendingBlocks[slot], 0, degree);
+        System.arraycopy(data, 0, pendingData[slot], 0, blockSize);
+        pendingDegree[slot] = degree;
+        return true;
+    }
+
+    /**
+     * Store a solved block and peel the pending chunks containing it
+     */
+    private void solve(int block, byte[] data) {
+        int head = 0;
+        int tail = 0;
+        storeBlock(block, data, 0);
+        solvedQueue[tail ++] = block;
+        while (head < tail) {
+            int solved = solvedQueue[head ++];
+            for (int p = 0; p < pendingCount; p ++) {
+                int[] blocks = pendingBlocks[p];
+                int degree = pendingDegree[p];
+                for (int i = 0; i < degree; i ++) {
+                    if (blocks[i] != solved) {
+                        continue;
+                    }
+                    xor(message, solved * blockSize, pendingData[p]);
+                    blocks[i] = blocks[-- degree];
+                    pendingDegree[p] = degree;
+                    break;
+                }
+                if (degree == 1 && !known[blocks[0]]) {
+                    storeBlock(blocks[0], pendingData[p], 0);
+                    solvedQueue[tail ++] = blocks[0];
+                }
+                if (degree <= 1) {
+                    removePending(p);
+                    p --;
+                }
+            }
+        }
+        if (knownCount == blockCount) {
+            verify();
+        }
+    }
+
+    private void storeBlock(int block, byte[] data, int offset) {
+        System.arraycopy(data, offset, message, block * blockSize, blockSize);
+        known[block] = true;
+        knownCount ++;
+    }
+
+    private void removePending(int p) {
+        int last = -- pendingCount;
+        if (p == last) {
+            return;
+        }
+        // 配列を入れ替えて再利用する  swap so the buffers stay pooled
+        int[] blocks = pendingBlocks[p];
+        byte[] data = pendingData[p];
+        pendingBlocks[p] = pendingBlocks[last];
+        pendingData[p] = pendingData[last];
+        pendingDegree[p] = pendingDegree[last];
+        pendingBlocks[last] = blocks;
+        pendingData[last] = data;
+    }
+
+    private void verify() {
+        CRC32 crc = new CRC32();
+        crc.update(message, 0, length);
+        if ((int) crc.getValue() == checksum) {
+            complete = true;
+            return;
+        }
+        // 破損したチャンクが混入した  a corrupted chunk was accepted, start over
+        checksumErrors ++;
+        message = null;
+    }
+
+    private static void xor(byte[] source, int offset, byte[] target) {
+        for (int i = 0; i < target.length; i ++) {
+            target[i] ^= source[offset + i];
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Write the assembled message
+     */
+    public void writeMessage(OutputStream out) throws IOException {
+        if (!complete) {
+            throw new IllegalStateException("message is not complete");
+        }
+        out.write(message, 0, length);
+    }
+
+    /**
+     * @return message length of the current transfer, 0 before the first chunk
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return solved blocks / all blocks (0 - 1)
+     */
+    public float getProgress() {
+        return blockCount == 0 ? 0 : (float) knownCount / blockCount;
+    }
+
+    /**
+     * @return solved message bytes per second since the first chunk
+     */
+    public double getBytesPerSecond() {
+        if (startNanos < 0 || blockCount == 0) {
+            return 0;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        double bytes = (double) length * knownCount / blockCount;
+        return elapsed == 0 ? 0 : bytes * 1e9 / elapsed;
+    }
+
+    public long getElapsedMillis() {
+        return startNanos < 0 ? 0 : (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    public long getChunksReceived() {
+        return chunksReceived;
+    }
+
+    public long getChunksDuplicate() {
+        return chunksDuplicate;
+    }
+
+    public long getChunksRejected() {
+        return chunksRejected;
+    }
+
+    public long getChecksumErrors() {
+        return checksumErrors;
+    }
+}
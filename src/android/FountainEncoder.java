@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.util.zip.CRC32;
+
+/**
+ * Produces the {@link FountainChunk}s of a message for an animated QR transfer
+ *
+ * Reference implementation of the sender side: the first {@code blockCount} chunks carry the
+ * blocks as they are, every further chunk a random combination, for as long as the receiver needs.
+ * Has no Android dependency.
+ */
+public class FountainEncoder {
+
+    private final byte[] message;
+    private final int blockSize;
+    private final int blockCount;
+    private final int transferId;
+    private final int checksum;
+    private final int[] selected = new int[FountainChunk.MAX_DEGREE];
+    private int seq = 0;
+
+    /**
+     * @param message    message
+     * @param blockSize  bytes per chunk (e.g. 400 - 1000 for QR codes readable on a screen; see
+     *                   {@link FountainDecoder#MIN_BLOCK_SIZE} and {@link FountainDecoder#MAX_BLOCK_COUNT})
+     * @param transferId random id of the transfer
+     */
+    public FountainEncoder(byte[] message, int blockSize, int transferId) {
+        this.message = message;
+        this.blockSize = blockSize;
+        this.blockCount = (message.length + blockSize - 1) / blockSize;
+        this.transferId = transferId;
+        CRC32 crc = new CRC32();
+        crc.update(message, 0, message.length);
+        this.checksum = (int) crc.getValue();
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return next chunk
+     */
+    public FountainChunk next() {
+        int degree = FountainChunk.selectBlocks(transferId, seq, blockCount, selected);
+        byte[] data = new byte[blockSize];
+        for (int i = 0; i < degree; i ++) {
+            int offset = selected[i] * blockSize;
+            int end = Math.min(message.length, offset + blockSize);
+            for (int j = offset; j < end; j ++) {
+                data[j - offset] ^= message[j];
+            }
+        }
+        return new FountainChunk(transferId, message.length, blockSize, checksum, seq ++, data);
+    }
+}
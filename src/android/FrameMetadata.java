@@ -20,12 +20,25 @@
 
 package io.monaca.plugin.barcodescanner;
 
-/** Describing a frame info. */
+/**
+ * Describing a frame info.
+ *
+ * <p>Frames are kept in sensor orientation; {@link #getRotation()} is the clockwise rotation that
+ * makes them upright. The mapping methods convert between frame (sensor buffer) coordinates,
+ * upright coordinates (as reported by the detector) and preview view coordinates, so pixels never
+ * have to be rotated just to relate positions.
+ */
 public class FrameMetadata {
 
+  /** Number of planes of a YUV_420_888 frame. */
+  public static final int PLANE_COUNT = 3;
+
   private final int width;
   private final int height;
   private final int rotation;
+  private final long timestampNanos;
+  private final int[] rowStrides;
+  private final int[] pixelStrides;
 
   public int getWidth() {
     return width;
@@ -39,10 +52,152 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /** Returns the sensor timestamp of the frame in nanoseconds, or 0 if unknown. */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  /** Returns the row stride of the plane (0: Y, 1: U, 2: V), or the packed row width if unknown. */
+  public int getRowStride(int plane) {
+    int stride = rowStrides[plane];
+    if (stride > 0) {
+      return stride;
+    }
+    return plane == 0 ? width : width / 2;
+  }
+
+  /** Returns the pixel stride of the plane (0: Y, 1: U, 2: V), or 1 if unknown. */
+  public int getPixelStride(int plane) {
+    return pixelStrides[plane] > 0 ? pixelStrides[plane] : 1;
+  }
+
+  /** Returns the width of the frame once rotated upright. */
+  public int getUprightWidth() {
+    return rotation == 90 || rotation == 270 ? height : width;
+  }
+
+  /** Returns the height of the frame once rotated upright. */
+  public int getUprightHeight() {
+    return rotation == 90 || rotation == 270 ? width : height;
+  }
+
+  /** Returns true if both metadata describe frames of the same geometry. */
+  public boolean isSameGeometry(int width, int height, int rotation) {
+    return this.width == width && this.height == height && this.rotation == rotation;
+  }
+
+  /** Maps (x, y) pairs from frame coordinates to upright coordinates in place. */
+  public void mapFrameToUpright(float[] points) {
+    for (int i = 0; i + 1 < points.length; i += 2) {
+      float x = points[i];
+      float y = points[i + 1];
+      switch (rotation) {
+        case 90:
+          points[i] = height - y;
+          points[i + 1] = x;
+          break;
+        case 180:
+          points[i] = width - x;
+          points[i + 1] = height - y;
+          break;
+        case 270:
+          points[i] = y;
+          points[i + 1] = width - x;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /** Maps (x, y) pairs from upright coordinates to frame coordinates in place. */
+  public void mapUprightToFrame(float[] points) {
+    for (int i = 0; i + 1 < points.length; i += 2) {
+      float u = points[i];
+      float v = points[i + 1];
+      switch (rotation) {
+        case 90:
+          points[i] = v;
+          points[i + 1] = height - u;
+          break;
+        case 180:
+          points[i] = width - u;
+          points[i + 1] = height - v;
+          break;
+        case 270:
+          points[i] = width - v;
+          points[i + 1] = u;
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Maps (x, y) pairs from upright coordinates to the coordinates of a preview view of the given
+   * size in place, assuming the preview is scaled to fill the view and centered (FILL_CENTER).
+   * Used to draw overlays for detected codes.
+   */
+  public void mapUprightToView(float[] points, int viewWidth, int viewHeight) {
+    float scale = getFillScale(viewWidth, viewHeight);
+    float offsetX = (viewWidth - getUprightWidth() * scale) / 2;
+    float offsetY = (viewHeight - getUprightHeight() * scale) / 2;
+    for (int i = 0; i + 1 < points.length; i += 2) {
+      points[i] = points[i] * scale + offsetX;
+      points[i + 1] = points[i + 1] * scale + offsetY;
+    }
+  }
+
+  /** Inverse of {@link #mapUprightToView}. */
+  public void mapViewToUpright(float[] points, int viewWidth, int viewHeight) {
+    float scale = getFillScale(viewWidth, viewHeight);
+    float offsetX = (viewWidth - getUprightWidth() * scale) / 2;
+    float offsetY = (viewHeight - getUprightHeight() * scale) / 2;
+    for (int i = 0; i + 1 < points.length; i += 2) {
+      points[i] = (points[i] - offsetX) / scale;
+      points[i + 1] = (points[i + 1] - offsetY) / scale;
+    }
+  }
+
+  /**
+   * Maps a rectangle of the preview view (e.g. the detection area) to the frame buffer.
+   *
+   * @param viewRect {left, top, right, bottom} in view coordinates
+   * @param outRect receives {left, top, right, bottom} in frame coordinates, clamped to the frame
+   */
+  public void mapViewRectToFrame(float[] viewRect, int viewWidth, int viewHeight, int[] outRect) {
+    float[] points = {viewRect[0], viewRect[1], viewRect[2], viewRect[3]};
+    mapViewToUpright(points, viewWidth, viewHeight);
+    mapUprightToFrame(points);
+    outRect[0] = clamp((int) Math.min(points[0], points[2]), width);
+    outRect[1] = clamp((int) Math.min(points[1], points[3]), height);
+    outRect[2] = clamp((int) Math.ceil(Math.max(points[0], points[2])), width);
+    outRect[3] = clamp((int) Math.ceil(Math.max(points[1], points[3])), height);
+  }
+
+  private float getFillScale(int viewWidth, int viewHeight) {
+    return Math.max(
+        (float) viewWidth / getUprightWidth(), (float) viewHeight / getUprightHeight());
+  }
+
+  private static int clamp(int value, int max) {
+    return Math.max(0, Math.min(value, max));
+  }
+
+  private FrameMetadata(
+      int width,
+      int height,
+      int rotation,
+      long timestampNanos,
+      int[] rowStrides,
+      int[] pixelStrides) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.timestampNanos = timestampNanos;
+    this.rowStrides = rowStrides;
+    this.pixelStrides = pixelStrides;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -51,6 +206,9 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private long timestampNanos;
+    private final int[] rowStrides = new int[PLANE_COUNT];
+    private final int[] pixelStrides = new int[PLANE_COUNT];
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -67,8 +225,20 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNanos(long timestampNanos) {
+      this.timestampNanos = timestampNanos;
+      return this;
+    }
+
+    public Builder setPlaneStrides(int plane, int rowStride, int pixelStride) {
+      this.rowStrides[plane] = rowStride;
+      this.pixelStrides[plane] = pixelStride;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(
+          width, height, rotation, timestampNanos, rowStrides.clone(), pixelStrides.clone());
     }
   }
 }
@@ -0,0 +1,285 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-frame stages in front of the detector
+ *
+ * Runs, in order: recording (debug.record), the sharpness gate (quality.*, scored on the camera's
+ * Y plane so dropped frames are not copied), the conversion of the Y plane into a reused NV21
+ * buffer (neutral chroma), the frame tap (frames.*) and low-light fusion
+ * (fusion.*), and prepares the preprocessed retry frame (preprocess.*) when the detector found
+ * nothing. The detection area is kept mapped to frame coordinates. Has no Android dependency, so
+ * live camera frames and recorded frames replayed on a plain JVM go through the same stages; only
+ * the detector itself differs.
+ */
+public class FramePipeline {
+
+    /**
+     * Side output of the converted frame (e.g. the frame stream); must not modify the buffer
+     */
+    public interface Tap {
+        void onFrame(FramePipeline pipeline);
+    }
+
+    /**
+     * Section markers around each stage (system trace)
+     */
+    public interface Tracer {
+        void begin(String section);
+
+        void end();
+    }
+
+    private FrameMetadata metadata;
+    private long timestampNanos;
+    private byte[] nv21;
+    private final int[] roi = new int[4];
+
+    private float[] viewRect;
+    private int viewWidth;
+    private int viewHeight;
+    private int[] frameRoi;
+
+    private FrameRecorder recorder;
+    private FrameQualityGate qualityGate;
+    private Tap tap;
+    private LowLightFusion lowLightFusion;
+    private LuminancePreprocessor preprocessor;
+    private Tracer tracer;
+    private Runnable allocationListener;
+
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public void setQualityGate(FrameQualityGate qualityGate) {
+        this.qualityGate = qualityGate;
+    }
+
+    public void setTap(Tap tap) {
+        this.tap = tap;
+    }
+
+    public void setLowLightFusion(LowLightFusion lowLightFusion) {
+        this.lowLightFusion = lowLightFusion;
+    }
+
+    public void setPreprocessor(LuminancePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * @param listener called after the frame buffer is (re)allocated, e.g. to check a memory budget
+     */
+    public void setAllocationListener(Runnable listener) {
+        allocationListener = listener;
+    }
+
+    /**
+     * Set the detection area in preview view coordinates
+     *
+     * @param rect       {left, top, right, bottom} in view coordinates, or null for the whole frame
+     * @param viewWidth  preview view width
+     * @param viewHeight preview view height
+     */
+    public void setViewRoi(float[] rect, int viewWidth, int viewHeight) {
+        this.viewRect = rect;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        if (metadata != null) {
+            updateRoi();
+        }
+    }
+
+    /**
+     * Set the detection area in frame coordinates (recorded frames), replacing the view rect
+     *
+     * @param rect {left, top, right, bottom}, or null to use the view rect
+     */
+    public void setFrameRoi(int[] rect) {
+        frameRoi = rect;
+        if (metadata != null) {
+            updateRoi();
+        }
+    }
+
+    /**
+     * Run the stages in front of the detector on a frame
+     *
+     * @param metadata       frame metadata (size, rotation, strides)
+     * @param timestampNanos sensor timestamp
+     * @param planes         Y, U, V planes (U and V are only read by the recorder)
+     * @return false if the frame was dropped (blurry) and must not be sent to the detector
+     */
+    public boolean process(FrameMetadata metadata, long timestampNanos, ByteBuffer[] planes) {
+        this.timestampNanos = timestampNanos;
+        if (prepareGeometry(metadata) && allocationListener != null) {
+            allocationListener.run();
+        }
+        if (recorder != null) {
+            begin("record");
+            recorder.record(metadata, timestampNanos, planes, roi);
+            end();
+        }
+        if (qualityGate != null) {
+            begin("qualityGate");
+            boolean sharp = qualityGate.accept(planes[0], metadata.getRowStride(0), roi);
+            end();
+            if (!sharp) {
+                return false;
+            }
+        }
+        begin("convert");
+        copyLuminance(planes[0], metadata.getRowStride(0), metadata.getWidth(), metadata.getHeight(), nv21);
+        end();
+        if (tap != null) {
+            begin("frameTap");
+            tap.onFrame(this);
+            end();
+        }
+        if (lowLightFusion != null) {
+            // 暗い場合のみ検出エリアを直近フレームと合成してノイズを減らす
+            begin("fusion");
+            lowLightFusion.fuse(nv21, metadata.getWidth(), roi);
+            end();
+        }
+        return true;
+    }
+
+    /**
+     * Preprocess the last frame for a second detection pass, after the plain pass found nothing
+     *
+     * @return preprocessed NV21 frame (reused until the next call), or null if the frame is not retried
+     */
+    public byte[] retry() {
+        if (preprocessor == null || nv21 == null
+                || !preprocessor.shouldRetry(nv21, metadata.getWidth(), roi)) {
+            return null;
+        }
+        begin("preprocess");
+        byte[] preprocessed = preprocessor.prepare(nv21, metadata.getWidth(), metadata.getHeight(), roi);
+        end();
+        return preprocessed;
+    }
+
+    /**
+     * @return true if the frame geometry changed (buffers were reallocated)
+     */
+    private boolean prepareGeometry(FrameMetadata metadata) {
+        boolean changed = this.metadata == null || !this.metadata.isSameGeometry(
+                metadata.getWidth(), metadata.getHeight(), metadata.getRotation());
+        this.metadata = metadata;
+        if (changed) {
+            int frameSize = metadata.getWidth() * metadata.getHeight();
+            nv21 = new byte[frameSize + 2 * (frameSize / 4)];
+            // 色差は無彩色で固定  chroma stays neutral, only luminance is updated per frame
+            Arrays.fill(nv21, frameSize, nv21.length, (byte) 128);
+        }
+        if (changed || frameRoi != null) {
+            updateRoi();
+        }
+        return changed;
+    }
+
+    public FrameMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @return sensor timestamp of the last processed frame
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return NV21 buffer of the last prepared frame (reused across frames)
+     */
+    public byte[] getNv21() {
+        return nv21;
+    }
+
+    /**
+     * @return {left, top, right, bottom} of the detection area in frame coordinates
+     */
+    public int[] getRoi() {
+        return roi;
+    }
+
+    /**
+     * Drop the frame buffer; the next frame reallocates it
+     */
+    public void release() {
+        metadata = null;
+        nv21 = null;
+    }
+
+    /**
+     * @return bytes of the frame buffer
+     */
+    public long getBufferBytes() {
+        return nv21 != null ? nv21.length : 0;
+    }
+
+    private void updateRoi() {
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        if (frameRoi != null) {
+            roi[0] = Math.max(0, Math.min(width, frameRoi[0]));
+            roi[1] = Math.max(0, Math.min(height, frameRoi[1]));
+            roi[2] = Math.max(roi[0], Math.min(width, frameRoi[2]));
+            roi[3] = Math.max(roi[1], Math.min(height, frameRoi[3]));
+            return;
+        }
+        if (viewRect == null || viewWidth <= 0 || viewHeight <= 0) {
+            roi[0] = 0;
+            roi[1] = 0;
+            roi[2] = width;
+            roi[3] = height;
+            return;
+        }
+        metadata.mapViewRectToFrame(viewRect, viewWidth, viewHeight, roi);
+    }
+
+    private void begin(String section) {
+        if (tracer != null) {
+            tracer.begin(section);
+        }
+    }
+
+    private void end() {
+        if (tracer != null) {
+            tracer.end();
+        }
+    }
+
+    /**
+     * Copy a luminance plane into a tightly packed buffer, dropping row padding.
+     *
+     * @param buffer    Y plane
+     * @param rowStride Y plane row stride
+     * @param width     image width
+     * @param height    image height
+     * @param out       destination of at least width * height bytes
+     */
+    public static void copyLuminance(ByteBuffer buffer, int rowStride, int width, int height, byte[] out) {
+        buffer.rewind();
+        if (rowStride == width) {
+            buffer.get(out, 0, width * height);
+            return;
+        }
+        for (int row = 0; row < height; row ++) {
+            buffer.position(row * rowStride);
+            buffer.get(out, row * width, width);
+        }
+    }
+}
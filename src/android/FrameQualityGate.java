@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sharpness gate in front of the detector
+ *
+ * Scores the detection area of the luminance plane with a subsampled Laplacian variance and drops
+ * frames that are much blurrier than the recent sharpest frames. The score is read directly from the
+ * camera's Y plane, so dropped frames are never copied. The reference adapts to the
+ * device and scene (a decaying peak of recent scores), so no absolute threshold has to be tuned
+ * per camera. A frame is let through after {@code maxConsecutiveDrops} drops so detection never
+ * starves in scenes that stay blurry.
+ */
+public class FrameQualityGate {
+
+    /** Number of samples per side of the detection area */
+    private static final int SAMPLES_PER_SIDE = 64;
+    /** Per-frame decay of the reference peak */
+    private static final double PEAK_DECAY = 0.97;
+
+    private final double ratio;
+    private final int maxConsecutiveDrops;
+
+    private double peak = 0;
+    private int consecutiveDrops = 0;
+    private double lastScore = 0;
+    private double scoreSum = 0;
+    private long framesPassed = 0;
+    private long framesDropped = 0;
+
+    /**
+     * @param ratio               minimum score relative to the reference peak (0 - 1)
+     * @param maxConsecutiveDrops frames dropped in a row before one is let through
+     */
+    public FrameQualityGate(double ratio, int maxConsecutiveDrops) {
+        this.ratio = ratio;
+        this.maxConsecutiveDrops = maxConsecutiveDrops;
+    }
+
+    /**
+     * Score the frame and decide whether it is sharp enough
+     *
+     * @param plane     Y plane (read with absolute gets; the position is not modified)
+     * @param rowStride row stride of the Y plane
+     * @param roi       {left, top, right, bottom} region to score
+     * @return true if the frame should be sent to the detector
+     */
+    public boolean accept(ByteBuffer plane, int rowStride, int[] roi) {
+        double score = sharpness(plane, rowStride, roi);
+        lastScore = score;
+        peak = Math.max(score, peak * PEAK_DECAY);
+        if (score >= peak * ratio || consecutiveDrops >= maxConsecutiveDrops) {
+            consecutiveDrops = 0;
+            framesPassed ++;
+            scoreSum += score;
+            return true;
+        }
+        consecutiveDrops ++;
+        framesDropped ++;
+        return false;
+    }
+
+    /**
+     * Subsampled Laplacian variance of a region of a packed luminance plane
+     *
+     * @return sharpness score (higher is sharper)
+     */
+    public static double sharpness(byte[] luminance, int width, int[] roi) {
+        return sharpness(ByteBuffer.wrap(luminance), width, roi);
+    }
+
+    /**
+     * Subsampled Laplacian variance of a region
+     *
+     * Only about {@code SAMPLES_PER_SIDE}^2 pixels and their neighbours are read, whatever the
+     * frame size.
+     *
+     * @param plane     luminance plane (read with absolute gets)
+     * @param rowStride row stride of the plane
+     * @return sharpness score (higher is sharper)
+     */
+    public static double sharpness(ByteBuffer plane, int rowStride, int[] roi) {
+        int left = roi[0];
+        int top = roi[1];
+        int right = roi[2];
+        int bottom = roi[3];
+        int step = Math.max(1, Math.min(right - left, bottom - top) / SAMPLES_PER_SIDE);
+        int rowStep = step * rowStride;
+        long sum = 0;
+        long sumSquares = 0;
+        int count = 0;
+        for (int y = top + step; y < bottom - step; y += step) {
+            int row = y * rowStride;
+            for (int x = left + step; x < right - step; x += step) {
+                int center = row + x;
+                int laplacian = 4 * (plane.get(center) & 0xff)
+                        - (plane.get(center - step) & 0xff)
+                        - (plane.get(center + step) & 0xff)
+                        - (plane.get(center - rowStep) & 0xff)
+                        - (plane.get(center + rowStep) & 0xff);
+                sum += laplacian;
+                sumSquares += (long) laplacian * laplacian;
+                count ++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double mean = (double) sum / count;
+        return (double) sumSquares / count - mean * mean;
+    }
+
+    public double getLastScore() {
+        return lastScore;
+    }
+
+    public double getThreshold() {
+        return peak * ratio;
+    }
+
+    public long getFramesPassed() {
+        return framesPassed;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    public double getMeanPassedScore() {
+        return framesPassed == 0 ? 0 : scoreSum / framesPassed;
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records raw YUV frames into a file for off-device replay (debug.record)
+ *
+ * File layout (little endian), replayed off-device through a memory map (bench/android/FrameReplay.java):
+ * <pre>
+ * header: int magic "MBSF", int version
+ * frame:  int recordSize, long timestampNanos, int width, int height, int rotation,
+ *         4 x int detection area {left, top, right, bottom} in frame coordinates (version 2),
+ *         3 x (int rowStride, int pixelStride, int length), Y bytes, U bytes, V bytes
+ * </pre>
+ * Planes are copied into pooled buffers on the caller thread and written on a background thread.
+ * Frames are dropped when all buffers are in flight or the size limit is reached, so recording
+ * never stalls the camera.
+ */
+public class FrameRecorder implements Closeable {
+
+    static final int MAGIC = 0x4d425346; // "MBSF"
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 8;
+    /** recordSize excluded */
+    static final int FRAME_HEADER_SIZE = 8 + 4 * 3 + 4 * 4 + 4 * 3 * FrameMetadata.PLANE_COUNT;
+
+    private static final int POOL_SIZE = 3;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long maxBytes;
+    private final BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private long bytesWritten;
+    /** Buffers allocated for the pool; only touched by the recording thread */
+    private int allocated = 0;
+    /** Only incremented on the writer thread */
+    private volatile long framesRecorded = 0;
+    /** Incremented on the recording thread and the writer thread */
+    private final AtomicLong framesDropped = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * @param file     output file (overwritten)
+     * @param maxBytes maximum file size
+     */
+    public FrameRecorder(File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.write(header);
+        bytesWritten = FILE_HEADER_SIZE;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getFramesRecorded() {
+        return framesRecorded;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * Record a frame
+     *
+     * @param metadata frame size, rotation and plane strides
+     * @param timestampNanos sensor timestamp
+     * @param planes   Y, U, V planes (read from position 0 to limit; positions are not modified)
+     * @param roi      {left, top, right, bottom} detection area in frame coordinates
+     */
+    public void record(FrameMetadata metadata, long timestampNanos, ByteBuffer[] planes, int[] roi) {
+        if (closed) {
+            return;
+        }
+        int size = 4 + FRAME_HEADER_SIZE;
+        for (ByteBuffer plane : planes) {
+            size += plane.limit();
+        }
+        synchronized (this) {
+            if (bytesWritten + size > maxBytes) {
+                framesDropped.incrementAndGet();
+                return;
+            }
+            bytesWritten += size;
+        }
+        ByteBuffer buffer = obtainBuffer(size);
+        if (buffer == null) {
+            framesDropped.incrementAndGet();
+            synchronized (this) {
+                bytesWritten -= size;
+            }
+            return;
+        }
+        buffer.putInt(size - 4);
+        buffer.putLong(timestampNanos);
+        buffer.putInt(metadata.getWidth());
+        buffer.putInt(metadata.getHeight());
+        buffer.putInt(metadata.getRotation());
+        for (int i = 0; i < 4; i ++) {
+            buffer.putInt(roi[i]);
+        }
+        for (int i = 0; i < FrameMetadata.PLANE_COUNT; i ++) {
+            buffer.putInt(metadata.getRowStride(i));
+            buffer.putInt(metadata.getPixelStride(i));
+            buffer.putInt(planes[i].limit());
+        }
+        for (ByteBuffer plane : planes) {
+            ByteBuffer source = plane.duplicate();
+            source.position(0);
+            buffer.put(source);
+        }
+        buffer.flip();
+        try {
+            writer.execute(() -> {
+                try {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    framesRecorded ++;
+                } catch (IOException e) {
+                    framesDropped.incrementAndGet();
+                } finally {
+                    buffer.clear();
+                    pool.offer(buffer);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // close() と競合した  closed concurrently
+            framesDropped.incrementAndGet();
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
+
+    /**
+     * @return a pooled buffer of at least size bytes, or null if all buffers are in flight
+     */
+    private ByteBuffer obtainBuffer(int size) {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            if (allocated >= POOL_SIZE) {
+                return null;
+            }
+            allocated ++;
+        } else if (buffer.capacity() >= size) {
+            return buffer;
+        }
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Stop recording; pending frames are flushed and the file is closed on the writer thread
+     *
+     * Returns without waiting, so it can be called from onDestroy on the main thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // 書き込み待ちのフレームの後に閉じる  queued after the pending frames
+        writer.execute(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the frames written so far stay readable
+            }
+        });
+        writer.shutdown();
+    }
+}
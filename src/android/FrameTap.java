@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Down-scaled luminance of the detection area streamed to JavaScript (frames.enabled)
+ *
+ * Frames are area-averaged into buffers of a small recycled pool on the analyzer thread and handed
+ * to a {@link Sink}, which returns each buffer with {@link #release(byte[])} once it has been sent.
+ * A frame is dropped instead of waiting when JavaScript has not acknowledged enough of the previous
+ * frames ({@link #ack(long)}) or no buffer is free, so the camera pipeline never stalls.
+ * Taps are registered by session id, for the plugin (ackFrame action) and the scanner activity.
+ * A closed tap drops every frame, so a scanner still holding it after its session ended is harmless.
+ * Has no Android dependency.
+ */
+public class FrameTap {
+
+    /**
+     * Receives tapped frames on the analyzer thread; must not block
+     */
+    public interface Sink {
+        /**
+         * @param frame     8 bit luminance, {@code width * height} bytes, to be passed to {@link #release}
+         * @param seq       frame sequence number, starting at 1
+         * @param roi       {left, top, right, bottom} of the detection area in frame coordinates
+         * @param rotation  frame rotation in degrees
+         * @param timestampNanos camera timestamp
+         */
+        void onFrame(byte[] frame, int width, int height, long seq, int[] roi, int rotation, long timestampNanos);
+    }
+
+    private static final Map<Integer, FrameTap> taps = new ConcurrentHashMap<>();
+
+    private final int width;
+    private final int height;
+    private final long intervalNanos;
+    private final int maxPending;
+    private final Sink sink;
+    private final BlockingQueue<byte[]> pool;
+
+    private int[] columnSums = new int[0];
+    private int outputWidth;
+    private int outputHeight;
+    private volatile int frameSize;
+    private int buffers = 0;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long seq = 0;
+    private volatile long ackedSeq = 0;
+    private volatile boolean closed = false;
+    private long framesSent = 0;
+    private long framesDropped = 0;
+
+    /**
+     * @param width      output width in pixels
+     * @param height     output height in pixels, or 0 to keep the aspect ratio of the detection area
+     * @param fps        maximum frame rate
+     * @param maxPending frames sent but not acknowledged yet before frames are dropped
+     * @param sink       receiver of the frames
+     */
+    public FrameTap(int width, int height, int fps, int maxPending, Sink sink) {
+        this.width = width;
+        this.height = height;
+        this.intervalNanos = 1000000000L / fps;
+        this.maxPending = maxPending;
+        this.sink = sink;
+        // 送信中のフレーム + 次のフレーム  frames in flight and the one being filled
+        this.pool = new ArrayBlockingQueue<>(maxPending + 1);
+    }
+
+    public static void register(int sessionId, FrameTap tap) {
+        taps.put(sessionId, tap);
+    }
+
+    /**
+     * @return tap of the session, or null
+     */
+    public static FrameTap get(int sessionId) {
+        return taps.get(sessionId);
+    }
+
+    public static FrameTap unregister(int sessionId) {
+        return taps.remove(sessionId);
+    }
+
+    /**
+     * Offer a frame; sends it to the sink unless the rate limit or the backpressure drops it
+     *
+     * @param lum            frame luminance (e.g. NV21 Y plane), one byte per pixel
+     * @param frameWidth     row length of lum
+     * @param roi            {left, top, right, bottom} of the detection area
+     * @param rotation       frame rotation in degrees
+     * @param timestampNanos camera timestamp
+     * @return true if the frame was sent
+     */
+    public boolean offer(byte[] lum, int frameWidth, int[] roi, int rotation, long timestampNanos) {
+        if (closed) {
+            return false;
+        }
+        if (lastTimestamp != Long.MIN_VALUE && timestampNanos - lastTimestamp < intervalNanos) {
+            return false;
+        }
+        if (seq - ackedSeq >= maxPending) {
+            framesDropped ++;
+            return false;
+        }
+        int roiWidth = roi[2] - roi[0];
+        int roiHeight = roi[3] - roi[1];
+        if (roiWidth <= 0 || roiHeight <= 0) {
+            return false;
+        }
+        int w = Math.min(width, roiWidth);
+        int h = height > 0 ? Math.min(height, roiHeight) : Math.max(1, (int) ((long) roiHeight * w / roiWidth));
+        if (w != outputWidth || h != outputHeight) {
+            // 出力サイズが変わったら古いバッファは捨てる  sizes changed, buffers are reallocated
+            outputWidth = w;
+            outputHeight = h;
+            frameSize = w * h;
+            pool.clear();
+            buffers = 0;
+        }
+        byte[] frame = pool.poll();
+        if (frame == null) {
+            if (buffers > maxPending) {
+                // 全てのバッファが送信中  all buffers are still being sent
+                framesDropped ++;
+                return false;
+            }
+            frame = new byte[w * h];
+            buffers ++;
+        }
+        downsample(lum, frameWidth, roi, frame, w, h);
+        lastTimestamp = timestampNanos;
+        seq ++;
+        framesSent ++;
+        sink.onFrame(frame, w, h, seq, roi, rotation, timestampNanos);
+        return true;
+    }
+
+    /**
+     * Area average of the detection area into the output buffer
+     */
+    private void downsample(byte[] lum, int frameWidth, int[] roi, byte[] out, int w, int h) {
+        int roiWidth = roi[2] - roi[0];
+        int roiHeight = roi[3] - roi[1];
+        if (columnSums.length < roiWidth) {
+            columnSums = new int[roiWidth];
+        }
+        int[] sums = columnSums;
+        for (int oy = 0; oy < h; oy ++) {
+            int y0 = roi[1] + oy * roiHeight / h;
+            int y1 = roi[1] + (oy + 1) * roiHeight / h;
+            // 出力1行分の入力行を列毎に合計する  sum the source rows of this output row per column
+            Arrays.fill(sums, 0, roiWidth, 0);
+            for (int y = y0; y < y1; y ++) {
+                int offset = y * frameWidth + roi[0];
+                for (int x = 0; x < roiWidth; x ++) {
+                    sums[x] += lum[offset + x] & 0xff;
+                }
+            }
+            int rows = y1 - y0;
+            int outOffset = oy * w;
+            for (int ox = 0; ox < w; ox ++) {
+                int x0 = ox * roiWidth / w;
+                int x1 = (ox + 1) * roiWidth / w;
+                int sum = 0;
+                for (int x = x0; x < x1; x ++) {
+                    sum += sums[x];
+                }
+                out[outOffset + ox] = (byte) (sum / ((x1 - x0) * rows));
+            }
+        }
+    }
+
+    /**
+     * Return a buffer passed to the sink once it has been sent
+     */
+    public void release(byte[] frame) {
+        if (frame.length == frameSize) {
+            pool.offer(frame);
+        }
+    }
+
+    /**
+     * Acknowledge frames processed by JavaScript
+     *
+     * @param seq sequence number of the last processed frame
+     */
+    public synchronized void ack(long seq) {
+        if (seq > ackedSeq) {
+            ackedSeq = seq;
+        }
+    }
+
+    /**
+     * Stop sending frames (session ended); later offers return false
+     */
+    public void close() {
+        closed = true;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+}
@@ -0,0 +1,350 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+
+/**
+ * Streaming GS1 element string parser
+ *
+ * Parses GS1-128 / GS1 DataMatrix / GS1 QR payloads (as returned by {@code Barcode.getRawBytes()})
+ * into Application Identifier elements without regex or intermediate strings.
+ * Fixed-length AIs are consumed by their predefined length, variable-length AIs up to the next
+ * GS (FNC1) separator or the end of data.
+ */
+public class Gs1Parser {
+
+    /** Group separator, transmitted in place of FNC1 */
+    public static final int GS = 0x1d;
+
+    /** Upper limit of variable-length element data defined in the GS1 General Specifications */
+    private static final int MAX_VARIABLE_LENGTH = 90;
+
+    /**
+     * Receiver of parsed elements
+     */
+    public interface Handler {
+        /**
+         * Called for each element
+         *
+         * @param ai     application identifier as integer (e.g. 1 for "01", 3103 for "3103")
+         * @param aiLength number of digits of the AI
+         * @param data   payload buffer (not copied)
+         * @param offset element data offset
+         * @param length element data length
+         */
+        void onElement(int ai, int aiLength, byte[] data, int offset, int length);
+    }
+
+    private Gs1Parser() {
+    }
+
+    /**
+     * Parse GS1 element string
+     *
+     * @param data    raw payload
+     * @param handler element receiver (may be null to validate only)
+     * @return true if the whole payload is a valid element string
+     */
+    public static boolean parse(byte[] data, Handler handler) {
+        if (data == null) {
+            return false;
+        }
+        int length = data.length;
+        int pos = skipSymbologyIdentifier(data);
+        int elements = 0;
+        while (pos < length) {
+            if ((data[pos] & 0xff) == GS) {
+                pos ++;
+                continue;
+            }
+            int aiLength = getAiLength(data, pos);
+            if (aiLength <= 0 || pos + aiLength > length) {
+                return false;
+            }
+            int ai = digits(data, pos, aiLength);
+            if (ai < 0) {
+                return false;
+            }
+            pos += aiLength;
+            int dataLength = getFixedDataLength(ai, aiLength);
+            int end;
+            if (dataLength > 0) {
+                end = pos + dataLength;
+                if (end > length) {
+                    return false;
+                }
+            } else {
+                end = pos;
+                while (end < length && (data[end] & 0xff) != GS) {
+                    end ++;
+                }
+                if (end == pos || end - pos > MAX_VARIABLE_LENGTH) {
+                    return false;
+                }
+            }
+            if (handler != null) {
+                handler.onElement(ai, aiLength, data, pos, end - pos);
+            }
+            elements ++;
+            pos = end;
+        }
+        return elements > 0;
+    }
+
+    /**
+     * Parse GS1 element string into typed fields
+     *
+     * <pre>
+     * {
+     *   "gtin": "09501101530003", "batch": "AB-123", "expiry": "2025-12-31", "serial": "1234",
+     *   "elements": { "01": "09501101530003", "10": "AB-123", "17": "251231", "21": "1234" }
+     * }
+     * </pre>
+     *
+     * @param data raw payload
+     * @return parsed fields, or null if the payload is not a GS1 element string
+     */
+    public static JSONObject parseToJson(byte[] data) {
+        JsonHandler handler = new JsonHandler();
+        if (!parse(data, handler) || handler.failed) {
+            return null;
+        }
+        return handler.result;
+    }
+
+    /**
+     * @return offset after the symbology identifier ("]C1", "]d2", "]Q3", "]e0") and a leading FNC1
+     */
+    private static int skipSymbologyIdentifier(byte[] data) {
+        int pos = 0;
+        if (data.length >= 3 && data[0] == ']') {
+            pos = 3;
+        }
+        if (pos < data.length && (data[pos] & 0xff) == GS) {
+            pos ++;
+        }
+        return pos;
+    }
+
+    /**
+     * Number of digits of the AI starting at pos, determined by its first two digits
+     * (and the third for the 71x national healthcare reimbursement numbers)
+     *
+     * @return AI length, or -1 if unknown
+     */
+    static int getAiLength(byte[] data, int pos) {
+        if (pos + 2 > data.length) {
+            return -1;
+        }
+        int prefix = digits(data, pos, 2);
+        if (prefix < 0) {
+            return -1;
+        }
+        if (prefix <= 22 || prefix == 30 || prefix == 37 || prefix >= 90) {
+            return 2;
+        }
+        if (prefix == 23 || prefix == 24 || prefix == 25 || (prefix >= 40 && prefix <= 42)) {
+            return 3;
+        }
+        if (prefix == 71) {
+            // 710 - 716 は3桁 (70xx, 72xx は4桁)  NHRN AIs are 3 digits, unlike the rest of 70 - 72
+            return pos + 3 <= data.length && data[pos + 2] >= '0' && data[pos + 2] <= '6' ? 3 : -1;
+        }
+        if ((prefix >= 31 && prefix <= 36) || prefix == 39 || prefix == 43
+                || prefix == 70 || prefix == 72 || (prefix >= 80 && prefix <= 82)) {
+            return 4;
+        }
+        return -1;
+    }
+
+    /**
+     * Predefined data length of the AI
+     *
+     * @return fixed data length, or 0 if the AI is variable length (FNC1 terminated)
+     */
+    static int getFixedDataLength(int ai, int aiLength) {
+        int prefix = aiLength == 2 ? ai : aiLength == 3 ? ai / 10 : ai / 100;
+        switch (prefix) {
+            case 0:
+                return 18;
+            case 1:
+            case 2:
+            case 3:
+                return 14;
+            case 4:
+                return 16;
+            case 11:
+            case 12:
+            case 13:
+            case 14:
+            case 15:
+            case 16:
+            case 17:
+            case 18:
+            case 19:
+                return 6;
+            case 20:
+                return 2;
+            case 31:
+            case 32:
+            case 33:
+            case 34:
+            case 35:
+            case 36:
+                return 6;
+            case 41:
+                return 13;
+            default:
+                return 0;
+        }
+    }
+
+    private static int digits(byte[] data, int offset, int count) {
+        int result = 0;
+        for (int i = offset; i < offset + count; i ++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Collect elements into JSON with typed fields for the common logistics AIs
+     */
+    private static class JsonHandler implements Handler {
+        private final JSONObject result = new JSONObject();
+        private final JSONObject elements = new JSONObject();
+        private boolean failed = false;
+
+        JsonHandler() {
+            try {
+                result.put("elements", elements);
+            } catch (JSONException e) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void onElement(int ai, int aiLength, byte[] data, int offset, int length) {
+            String value = new String(data, offset, length, StandardCharsets.ISO_8859_1);
+            try {
+                elements.put(formatAi(ai, aiLength), value);
+                switch (aiLength == 4 ? ai / 10 : ai) {
+                    case 0:
+                        result.put("sscc", value);
+                        break;
+                    case 1:
+                        result.put("gtin", value);
+                        break;
+                    case 2:
+                        result.put("content", value);
+                        break;
+                    case 10:
+                        result.put("batch", value);
+                        break;
+                    case 11:
+                        putDate("productionDate", data, offset);
+                        break;
+                    case 15:
+                        putDate("bestBefore", data, offset);
+                        break;
+                    case 17:
+                        putDate("expiry", data, offset);
+                        break;
+                    case 21:
+                        result.put("serial", value);
+                        break;
+                    case 30:
+                    case 37:
+                        result.put(ai == 30 ? "variableCount" : "count", Long.parseLong(value));
+                        break;
+                    case 310:
+                        result.put("netWeightKg", decimal(data, offset, length, ai % 10));
+                        break;
+                    default:
+                        break;
+                }
+            } catch (JSONException | NumberFormatException e) {
+                failed = true;
+            }
+        }
+
+        /**
+         * YYMMDD to "YYYY-MM-DD". DD "00" means the last day of the month.
+         */
+        private void putDate(String key, byte[] data, int offset) throws JSONException {
+            int yy = digits(data, offset, 2);
+            int mm = digits(data, offset + 2, 2);
+            int dd = digits(data, offset + 4, 2);
+            if (yy < 0 || mm < 1 || mm > 12 || dd < 0 || dd > 31) {
+                failed = true;
+                return;
+            }
+            // GS1 sliding century: 常に現在年から -49〜+50 年の範囲に解釈する
+            int currentYear = Calendar.getInstance().get(Calendar.YEAR);
+            int year = currentYear / 100 * 100 + yy;
+            if (year - currentYear > 50) {
+                year -= 100;
+            } else if (currentYear - year > 49) {
+                year += 100;
+            }
+            if (dd == 0) {
+                dd = lastDayOfMonth(year, mm);
+            }
+            char[] date = {
+                    (char) ('0' + year / 1000), (char) ('0' + year / 100 % 10),
+                    (char) ('0' + year / 10 % 10), (char) ('0' + year % 10), '-',
+                    (char) ('0' + mm / 10), (char) ('0' + mm % 10), '-',
+                    (char) ('0' + dd / 10), (char) ('0' + dd % 10)};
+            result.put(key, new String(date));
+        }
+
+        private static int lastDayOfMonth(int year, int month) {
+            switch (month) {
+                case 2:
+                    return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+                case 4:
+                case 6:
+                case 9:
+                case 11:
+                    return 30;
+                default:
+                    return 31;
+            }
+        }
+
+        private static double decimal(byte[] data, int offset, int length, int decimals) {
+            long value = 0;
+            for (int i = offset; i < offset + length; i ++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException();
+                }
+                value = value * 10 + digit;
+            }
+            double divisor = 1;
+            for (int i = 0; i < decimals; i ++) {
+                divisor *= 10;
+            }
+            return value / divisor;
+        }
+
+        private static String formatAi(int ai, int aiLength) {
+            char[] chars = new char[aiLength];
+            for (int i = aiLength - 1; i >= 0; i --) {
+                chars[i] = (char) ('0' + ai % 10);
+                ai /= 10;
+            }
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+/**
+ * Detects whether the device is idle (motionless or face-down) with the accelerometer
+ *
+ * Uses SENSOR_DELAY_NORMAL so the monitor itself costs little compared with the camera.
+ */
+public class IdleMonitor implements SensorEventListener {
+
+    /** Change of acceleration (m/s^2) between samples regarded as motion */
+    private static final float MOTION_THRESHOLD = 0.6f;
+    /** Z-axis acceleration (m/s^2) below which the device is regarded as face-down */
+    private static final float FACE_DOWN_THRESHOLD = -7.0f;
+
+    /**
+     * Idle state listener
+     */
+    public interface Listener {
+        void onIdle();
+
+        void onMotion();
+    }
+
+    private final SensorManager sensorManager;
+    private final Sensor accelerometer;
+    private final Listener listener;
+    private final long stillDelayNanos;
+
+    private float lastX;
+    private float lastY;
+    private float lastZ;
+    private boolean hasLast = false;
+    private long lastMotionTimestamp = -1;
+    private boolean idle = false;
+
+    /**
+     * @param context     context
+     * @param stillDelay  milliseconds without motion until the device is regarded as idle
+     * @param listener    listener called on the main thread
+     */
+    public IdleMonitor(Context context, int stillDelay, Listener listener) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.accelerometer = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+        this.stillDelayNanos = stillDelay * 1000000L;
+        this.listener = listener;
+    }
+
+    public void start() {
+        if (accelerometer != null) {
+            hasLast = false;
+            lastMotionTimestamp = -1;
+            sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL);
+        }
+    }
+
+    public void stop() {
+        if (accelerometer != null) {
+            sensorManager.unregisterListener(this);
+        }
+    }
+
+    /**
+     * Mark the device as active (e.g. screen touched) without waiting for a sensor event
+     */
+    public void reset() {
+        lastMotionTimestamp = SystemClock.elapsedRealtimeNanos();
+        idle = false;
+    }
+
+    /**
+     * Mark the device as idle when the scanner went idle for another reason (e.g. timeout), so the
+     * next motion is reported with {@link Listener#onMotion()}
+     */
+    public void markIdle() {
+        idle = true;
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+        // event.timestamp は端末によって時間軸が異なるため受信時刻を使う
+        // the event timebase differs between devices, so events are stamped on arrival like reset()
+        long timestamp = SystemClock.elapsedRealtimeNanos();
+
+        boolean moved = false;
+        if (hasLast) {
+            float delta = Math.abs(x - lastX) + Math.abs(y - lastY) + Math.abs(z - lastZ);
+            moved = delta > MOTION_THRESHOLD;
+        }
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        hasLast = true;
+        if (lastMotionTimestamp < 0) {
+            lastMotionTimestamp = timestamp;
+        }
+
+        boolean faceDown = z < FACE_DOWN_THRESHOLD;
+        if (moved && !faceDown) {
+            lastMotionTimestamp = timestamp;
+            if (idle) {
+                idle = false;
+                listener.onMotion();
+            }
+        } else if (!idle && (faceDown || timestamp - lastMotionTimestamp >= stillDelayNanos)) {
+            idle = true;
+            listener.onIdle();
+        }
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Decodes barcodes in still images (batch decode action)
+ *
+ * Runs synchronously and must be called on a background thread.
+ */
+public class ImageDecoder {
+    private static final String TAG = "ImageDecoder";
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decode barcodes in images
+     *
+     * <pre>
+     * { "images": [ { "image": "file:///...", "data": [ { "text": "...", "format": "QR_CODE" } ] },
+     *               { "image": "...", "error": "..." } ] }
+     * </pre>
+     *
+     * @param resolver content resolver
+     * @param images   image file paths or file:// / content:// URIs
+     * @return decode results in the same order as images
+     */
+    public static JSONObject decode(ContentResolver resolver, JSONArray images) throws JSONException {
+        BarcodeScannerOptions options = new BarcodeScannerOptions.Builder()
+                .setBarcodeFormats(Barcode.FORMAT_ALL_FORMATS)
+                .build();
+        BarcodeScanner scanner = BarcodeScanning.getClient(options);
+        JSONArray results = new JSONArray();
+        try {
+            for (int i = 0; i < images.length(); i ++) {
+                String image = images.getString(i);
+                JSONObject imageResult = new JSONObject();
+                imageResult.put("image", image);
+                try {
+                    imageResult.put("data", decodeImage(resolver, scanner, image));
+                } catch (Exception e) {
+                    Log.d(TAG, "Failed to decode " + image + ": " + e.getMessage());
+                    imageResult.put("error", String.valueOf(e.getMessage()));
+                }
+                results.put(imageResult);
+            }
+        } finally {
+            scanner.close();
+        }
+        JSONObject result = new JSONObject();
+        result.put("images", results);
+        return result;
+    }
+
+    private static JSONArray decodeImage(ContentResolver resolver, BarcodeScanner scanner, String image)
+            throws Exception {
+        Uri uri = Uri.parse(image);
+        if (uri.getScheme() == null) {
+            uri = Uri.fromFile(new File(image));
+        }
+        Bitmap bitmap = BitmapUtils.getBitmapFromContentUri(resolver, uri);
+        if (bitmap == null) {
+            throw new IllegalArgumentException("cannot load image");
+        }
+        try {
+            List<Barcode> barcodes = Tasks.await(scanner.process(InputImage.fromBitmap(bitmap, 0)));
+            JSONArray data = new JSONArray();
+            for (Barcode barcode : barcodes) {
+                if (barcode.getDisplayValue() == null) {
+                    continue;
+                }
+                JSONObject item = new JSONObject();
+                item.put("text", barcode.getDisplayValue());
+                item.put("format", BarcodeScannerActivity.getBarcodeFormatString(barcode.getFormat()));
+                data.put(item);
+            }
+            return data;
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
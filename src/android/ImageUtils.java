@@ -5,12 +5,15 @@ package io.monaca.plugin.barcodescanner;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.media.Image;
+import android.os.Build;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -42,6 +45,129 @@ public class ImageUtils {
         }
     }
 
+    /**
+     * Rotate an NV21 frame clockwise into a reused buffer.
+     *
+     * Only for consumers that really need upright pixels (e.g. JPEG encoding);
+     * the detector takes the rotation as metadata instead.
+     *
+     * @param src      NV21 source
+     * @param width    source width
+     * @param height   source height
+     * @param rotation 90, 180 or 270
+     * @param dst      destination of the same size as src (width and height are swapped for 90/270)
+     */
+    public static void rotateNV21(byte[] src, int width, int height, int rotation, byte[] dst) {
+        int frameSize = width * height;
+        boolean swap = rotation == 90 || rotation == 270;
+        int dstWidth = swap ? height : width;
+        // Y
+        for (int y = 0; y < height; y ++) {
+            int srcRow = y * width;
+            for (int x = 0; x < width; x ++) {
+                dst[rotatedIndex(x, y, width, height, rotation, dstWidth)] = src[srcRow + x];
+            }
+        }
+        // VU (2x2 subsampled, interleaved)
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int dstChromaWidth = dstWidth / 2;
+        for (int y = 0; y < chromaHeight; y ++) {
+            int srcRow = frameSize + y * width;
+            for (int x = 0; x < chromaWidth; x ++) {
+                int index = frameSize
+                        + 2 * rotatedIndex(x, y, chromaWidth, chromaHeight, rotation, dstChromaWidth);
+                dst[index] = src[srcRow + 2 * x];
+                dst[index + 1] = src[srcRow + 2 * x + 1];
+            }
+        }
+    }
+
+    private static int rotatedIndex(int x, int y, int width, int height, int rotation, int dstWidth) {
+        switch (rotation) {
+            case 90:
+                return x * dstWidth + (height - 1 - y);
+            case 180:
+                return (height - 1 - y) * dstWidth + (width - 1 - x);
+            case 270:
+                return (width - 1 - x) * dstWidth + y;
+            default:
+                return y * dstWidth + x;
+        }
+    }
+
+    /**
+     * Render a region of a luminance buffer as a grayscale bitmap.
+     *
+     * @param luminance packed Y plane
+     * @param width     luminance row width
+     * @param rect      {left, top, right, bottom} region to render
+     * @param pixels    work buffer of at least region width * height (reused across frames)
+     * @param reuse     bitmap to reuse if it has the region size, or null
+     * @return rendered bitmap (reuse, or a new bitmap if the size changed)
+     */
+    public static Bitmap luminanceToBitmap(byte[] luminance, int width, int[] rect, int[] pixels, Bitmap reuse) {
+        ScanTrace.begin("ImageUtils.luminanceToBitmap");
+        int regionWidth = rect[2] - rect[0];
+        int regionHeight = rect[3] - rect[1];
+        Bitmap bitmap = reuse;
+        if (bitmap == null || bitmap.getWidth() != regionWidth || bitmap.getHeight() != regionHeight) {
+            bitmap = Bitmap.createBitmap(regionWidth, regionHeight, Bitmap.Config.ARGB_8888);
+        }
+        int i = 0;
+        for (int y = rect[1]; y < rect[3]; y ++) {
+            int row = y * width;
+            for (int x = rect[0]; x < rect[2]; x ++) {
+                int l = luminance[row + x] & 0xff;
+                pixels[i ++] = 0xff000000 | (l << 16) | (l << 8) | l;
+            }
+        }
+        bitmap.setPixels(pixels, 0, regionWidth, 0, 0, regionWidth, regionHeight);
+        ScanTrace.end();
+        return bitmap;
+    }
+
+    /**
+     * Decode only a region of a JPEG image.
+     *
+     * Unlike {@link #imageToBitmap(Image)}, pixels outside the region are not decoded.
+     *
+     * @param jpeg JPEG data
+     * @param rect {left, top, right, bottom} region in JPEG (sensor) coordinates
+     * @return decoded region, or null if the data cannot be decoded
+     * @throws IOException if the JPEG header cannot be read
+     */
+    public static Bitmap decodeJpegRegion(ByteBuffer jpeg, int[] rect) throws IOException {
+        ScanTrace.begin("ImageUtils.decodeJpegRegion");
+        BitmapRegionDecoder decoder = null;
+        try {
+            byte[] data = new byte[jpeg.remaining()];
+            jpeg.get(data);
+            decoder = newRegionDecoder(data);
+            Rect region = new Rect(rect[0], rect[1], rect[2], rect[3]);
+            if (!region.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) {
+                return null;
+            }
+            return decoder.decodeRegion(region, null);
+        } finally {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+            ScanTrace.end();
+        }
+    }
+
+    /**
+     * Create a region decoder, without the overload deprecated on API 31 and above
+     */
+    @SuppressWarnings("deprecation")
+    private static BitmapRegionDecoder newRegionDecoder(byte[] data) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return BitmapRegionDecoder.newInstance(data, 0, data.length);
+        }
+        return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+    }
+
     /**
      * Convert Image to Bitmap
      *
@@ -49,8 +175,13 @@ public class ImageUtils {
      * @return Converted Bitmap
      */
     public static Bitmap imageToBitmap(Image image) {
-        byte[] data = imageToByteArray(image);
-        return BitmapFactory.decodeByteArray(data, 0, data.length);
+        ScanTrace.begin("ImageUtils.imageToBitmap");
+        try {
+            byte[] data = imageToByteArray(image);
+            return BitmapFactory.decodeByteArray(data, 0, data.length);
+        } finally {
+            ScanTrace.end();
+        }
     }
 
     /**
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+import android.util.SizeF;
+
+import androidx.annotation.OptIn;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.CameraInfo;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Back camera selection for close-range scanning (camera.*)
+ *
+ * Each back camera is rated by the analysis pixels per millimetre of the label at the scanning
+ * distance, or at its minimum focus distance if it cannot focus that close:
+ * {@code focalLength / distance * analysisWidth / sensorWidth}. A lens with a short minimum focus
+ * distance (often the ultra-wide or macro camera) wins over the main camera for small labels only
+ * if it still resolves more pixels per module. The choice is cached per device model.
+ */
+public class LensSelector {
+    private static final String TAG = "LensSelector";
+    private static final String PREFERENCES = "io.monaca.plugin.barcodescanner.LensSelector";
+
+    /** Camera of the previous plugin versions: the default back camera */
+    public static final String LENS_DEFAULT = "default";
+    /** Camera rated best for the scanning distance */
+    public static final String LENS_AUTO = "auto";
+
+    private String cameraId;
+    private String selection = LENS_DEFAULT;
+    private double pixelsPerMm = 0;
+
+    /**
+     * Select the camera
+     *
+     * @param context       context for the decision cache
+     * @param provider      camera provider
+     * @param lens          "auto", "default" or a Camera2 camera id
+     * @param distanceMm    typical scanning distance
+     * @param analysisWidth analysis width requested from CameraX (longer side)
+     * @return camera selector
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    public CameraSelector select(Context context, ProcessCameraProvider provider, String lens, int distanceMm,
+                                 int analysisWidth) {
+        cameraId = null;
+        selection = LENS_DEFAULT;
+        pixelsPerMm = 0;
+        CameraSelector.Builder builder = new CameraSelector.Builder()
+                .requireLensFacing(CameraSelector.LENS_FACING_BACK);
+        if (LENS_DEFAULT.equals(lens)) {
+            return builder.build();
+        }
+        List<CameraInfo> cameras = getBackCameras(provider);
+        if (LENS_AUTO.equals(lens)) {
+            SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+            String key = Build.MANUFACTURER + "/" + Build.MODEL + "/" + distanceMm + "/" + analysisWidth;
+            cameraId = preferences.getString(key, null);
+            if (cameraId != null && find(cameras, cameraId) != null) {
+                selection = "cached";
+            } else {
+                cameraId = rate(cameras, distanceMm, analysisWidth);
+                selection = LENS_AUTO;
+                if (cameraId != null) {
+                    preferences.edit().putString(key, cameraId).apply();
+                }
+            }
+        } else if (find(cameras, lens) != null) {
+            cameraId = lens;
+            selection = "option";
+        } else {
+            Log.d(TAG, "No back camera " + lens);
+        }
+        if (cameraId == null) {
+            selection = LENS_DEFAULT;
+            return builder.build();
+        }
+        final String id = cameraId;
+        return builder.addCameraFilter(infos -> {
+            List<CameraInfo> selected = new ArrayList<>();
+            CameraInfo camera = find(infos, id);
+            if (camera != null) {
+                selected.add(camera);
+            }
+            return selected.isEmpty() ? infos : selected;
+        }).build();
+    }
+
+    /**
+     * @return id of the camera rated best, or null if no camera reports enough characteristics
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private String rate(List<CameraInfo> cameras, int distanceMm, int analysisWidth) {
+        String best = null;
+        for (CameraInfo camera : cameras) {
+            Camera2CameraInfo info = Camera2CameraInfo.from(camera);
+            float[] focalLengths = info.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+            SizeF sensorSize = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+            Float minFocusDiopters = info.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+            StreamConfigurationMap map = info.getCameraCharacteristic(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            if (focalLengths == null || focalLengths.length == 0 || sensorSize == null || map == null) {
+                continue;
+            }
+            // 固定焦点 (0) は遠距離専用として扱う  fixed focus lenses are rated at infinity
+            double minFocusMm = minFocusDiopters == null || minFocusDiopters <= 0 ? Double.MAX_VALUE : 1000 / minFocusDiopters;
+            double distance = Math.max(distanceMm, minFocusMm);
+            int width = Math.min(analysisWidth, getMaxWidth(map.getOutputSizes(ImageFormat.YUV_420_888)));
+            double score = focalLengths[0] / distance * width / Math.max(sensorSize.getWidth(), sensorSize.getHeight());
+            Log.d(TAG, "Camera " + info.getCameraId() + ": focal length " + focalLengths[0] + " mm, min focus "
+                    + (int) Math.min(minFocusMm, 1e6) + " mm, " + score + " px/mm");
+            if (score > pixelsPerMm) {
+                pixelsPerMm = score;
+                best = info.getCameraId();
+            }
+        }
+        return best;
+    }
+
+    private static int getMaxWidth(Size[] sizes) {
+        int width = 0;
+        if (sizes != null) {
+            for (Size size : sizes) {
+                width = Math.max(width, Math.max(size.getWidth(), size.getHeight()));
+            }
+        }
+        return width;
+    }
+
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private static List<CameraInfo> getBackCameras(ProcessCameraProvider provider) {
+        List<CameraInfo> cameras = new ArrayList<>();
+        for (CameraInfo camera : provider.getAvailableCameraInfos()) {
+            Integer facing = Camera2CameraInfo.from(camera).getCameraCharacteristic(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                cameras.add(camera);
+            }
+        }
+        return cameras;
+    }
+
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private static CameraInfo find(List<CameraInfo> cameras, String cameraId) {
+        for (CameraInfo camera : cameras) {
+            if (Camera2CameraInfo.from(camera).getCameraId().equals(cameraId)) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Camera2 id of the selected camera, or null for the default back camera
+     */
+    public String getCameraId() {
+        return cameraId;
+    }
+
+    /**
+     * @return how the camera was selected: "default", "auto", "cached" or "option"
+     */
+    public String getSelection() {
+        return selection;
+    }
+
+    /**
+     * @return rated pixels per millimetre of the selected camera, 0 unless rated in this session
+     */
+    public double getPixelsPerMm() {
+        return pixelsPerMm;
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+/**
+ * Multi-frame low-light fusion of the detection area (fusion.*)
+ *
+ * Keeps a ring of the most recent detection-area luminance planes, aligns them to the current frame
+ * with a global shift estimated from row and column projections, and writes their mean or median
+ * back into the frame buffer, so the detector sees a denoised detection area. Turns itself on only
+ * while the mean luminance of the detection area is low. Buffers are reallocated only when the
+ * detection area changes size, so the steady state allocates nothing.
+ *
+ * Has no Android dependency: it runs as a {@link FramePipeline} stage on live and replayed frames.
+ */
+public class LowLightFusion {
+
+    /** Luminance above the threshold needed to turn fusion off again */
+    private static final int HYSTERESIS = 10;
+    /** Number of luminance samples per side used for the brightness estimate */
+    private static final int SAMPLES_PER_SIDE = 32;
+    /** Maximum searched shift, relative to the detection area size */
+    private static final float MAX_SHIFT_RATIO = 0.08f;
+    /** Mean projection difference (gray levels) above which a frame is not fused (scene change) */
+    private static final int MAX_ALIGNMENT_ERROR = 12;
+
+    private final int frameCount;
+    private final int maxLuminance;
+    private final boolean median;
+
+    // リングバッファ  ring of detection-area planes and their projections
+    private byte[][] planes;
+    private int[][] rowProjections;
+    private int[][] columnProjections;
+    private int[] rowSums;
+    private Runnable allocationListener;
+    private final int[] shiftX;
+    private final int[] shiftY;
+    private final int[] fusedSlots;
+    private final int[] rowOffsets;
+    private final int[] samples;
+    private int fusedCount = 0;
+    private int head = 0;
+    private int count = 0;
+    private int roiWidth = -1;
+    private int roiHeight = -1;
+
+    private boolean active = false;
+    private int lastLuminance = 0;
+    private long framesFused = 0;
+
+    public LowLightFusion() {
+        this(4, 60, false);
+    }
+
+    /**
+     * @param frameCount   frames fused, including the current frame (2 - 8)
+     * @param maxLuminance mean luminance (0 - 255) of the detection area below which fusion is used
+     * @param median       per-pixel median instead of mean (more robust to moving objects, slower)
+     */
+    public LowLightFusion(int frameCount, int maxLuminance, boolean median) {
+        this.frameCount = frameCount;
+        this.maxLuminance = maxLuminance;
+        this.median = median;
+        shiftX = new int[frameCount];
+        shiftY = new int[frameCount];
+        fusedSlots = new int[frameCount];
+        rowOffsets = new int[frameCount];
+        samples = new int[frameCount];
+    }
+
+    /**
+     * Fuse the detection area of the current frame with the previous frames
+     *
+     * @param luminance packed Y plane of the current frame, updated in place
+     * @param width     row width
+     * @param roi       {left, top, right, bottom} detection area
+     * @return true if the detection area was replaced by a fused image
+     */
+    public boolean fuse(byte[] luminance, int width, int[] roi) {
+        lastLuminance = meanLuminance(luminance, width, roi);
+        if (active ? lastLuminance > maxLuminance + HYSTERESIS : lastLuminance >= maxLuminance) {
+            active = false;
+            count = 0;
+            return false;
+        }
+        active = true;
+
+        int w = roi[2] - roi[0];
+        int h = roi[3] - roi[1];
+        if (w <= 0 || h <= 0) {
+            return false;
+        }
+        if (w != roiWidth || h != roiHeight) {
+            allocate(w, h);
+        }
+        int current = head;
+        store(luminance, width, roi, current);
+        head = (head + 1) % frameCount;
+        count = Math.min(count + 1, frameCount);
+        if (count < 2) {
+            return false;
+        }
+
+        fusedSlots[0] = current;
+        shiftX[0] = 0;
+        shiftY[0] = 0;
+        fusedCount = 1;
+        for (int k = 1; k < count; k ++) {
+            int slot = (current - k + frameCount) % frameCount;
+            if (align(columnProjections[current], columnProjections[slot], h, shiftX, fusedCount)
+                    && align(rowProjections[current], rowProjections[slot], w, shiftY, fusedCount)) {
+                fusedSlots[fusedCount ++] = slot;
+            }
+        }
+        if (fusedCount < 2) {
+            return false;
+        }
+        blend(luminance, width, roi);
+        framesFused ++;
+        return true;
+    }
+
+    /**
+     * @param listener called after the ring buffer is (re)allocated, e.g. to check a memory budget
+     */
+    public void setAllocationListener(Runnable listener) {
+        allocationListener = listener;
+    }
+
+    private void allocate(int w, int h) {
+        roiWidth = w;
+        roiHeight = h;
+        planes = new byte[frameCount][w * h];
+        rowProjections = new int[frameCount][h];
+        columnProjections = new int[frameCount][w];
+        rowSums = new int[w];
+        head = 0;
+        count = 0;
+        if (allocationListener != null) {
+            allocationListener.run();
+        }
+    }
+
+    /**
+     * Drop the ring buffer; fusion restarts with the next dark frame
+     */
+    public void release() {
+        planes = null;
+        rowProjections = null;
+        columnProjections = null;
+        rowSums = null;
+        roiWidth = -1;
+        roiHeight = -1;
+        head = 0;
+        count = 0;
+    }
+
+    /**
+     * @return bytes of the ring buffer
+     */
+    public long getBufferBytes() {
+        if (planes == null) {
+            return 0;
+        }
+        return (long) frameCount * (roiWidth * roiHeight + 4 * (roiWidth + roiHeight)) + 4L * roiWidth;
+    }
+
+    /**
+     * Copy the detection area into a ring slot and compute its projections
+     */
+    private void store(byte[] luminance, int width, int[] roi, int slot) {
+        byte[] plane = planes[slot];
+        int[] rows = rowProjections[slot];
+        int[] columns = columnProjections[slot];
+        int w = roiWidth;
+        for (int x = 0; x < w; x ++) {
+            columns[x] = 0;
+        }
+        for (int y = 0; y < roiHeight; y ++) {
+            int src = (roi[1] + y) * width + roi[0];
+            int dst = y * w;
+            System.arraycopy(luminance, src, plane, dst, w);
+            int rowSum = 0;
+            for (int x = 0; x < w; x ++) {
+                int l = plane[dst + x] & 0xff;
+                rowSum += l;
+                columns[x] += l;
+            }
+            rows[y] = rowSum;
+        }
+    }
+
+    /**
+     * Find the shift d minimizing |current[i] - previous[i + d]| over a projection
+     *
+     * @param current  projection of the current frame
+     * @param previous projection of a previous frame
+     * @param depth    number of pixels summed into each projection element
+     * @param shifts   result array
+     * @param index    result index
+     * @return false if no shift matches well (scene change)
+     */
+    private static boolean align(int[] current, int[] previous, int depth, int[] shifts, int index) {
+        int length = current.length;
+        int maxShift = Math.max(1, (int) (length * MAX_SHIFT_RATIO));
+        long bestError = Long.MAX_VALUE;
+        int bestShift = 0;
+        for (int d = -maxShift; d <= maxShift; d ++) {
+            int from = Math.max(0, -d);
+            int to = Math.min(length, length - d);
+            long error = 0;
+            for (int i = from; i < to; i ++) {
+                error += Math.abs(current[i] - previous[i + d]);
+            }
+            // 重なり長で正規化  normalize by the overlap length
+            error = error * length / Math.max(1, to - from);
+            if (error < bestError) {
+                bestError = error;
+                bestShift = d;
+            }
+        }
+        shifts[index] = bestShift;
+        return bestError <= (long) MAX_ALIGNMENT_ERROR * depth * length;
+    }
+
+    /**
+     * Write the mean or median of the aligned planes into the detection area
+     */
+    private void blend(byte[] luminance, int width, int[] roi) {
+        int w = roiWidth;
+        int h = roiHeight;
+        int n = fusedCount;
+        for (int y = 0; y < h; y ++) {
+            for (int j = 0; j < n; j ++) {
+                rowOffsets[j] = Math.min(h - 1, Math.max(0, y + shiftY[j])) * w;
+            }
+            int out = (roi[1] + y) * width + roi[0];
+            if (median) {
+                for (int x = 0; x < w; x ++) {
+                    for (int j = 0; j < n; j ++) {
+                        int sx = Math.min(w - 1, Math.max(0, x + shiftX[j]));
+                        int l = planes[fusedSlots[j]][rowOffsets[j] + sx] & 0xff;
+                        // 挿入ソート  insertion sort into the sample buffer
+                        int i = j - 1;
+                        while (i >= 0 && samples[i] > l) {
+                            samples[i + 1] = samples[i];
+                            i --;
+                        }
+                        samples[i + 1] = l;
+                    }
+                    luminance[out + x] = (byte) ((samples[(n - 1) / 2] + samples[n / 2]) / 2);
+                }
+            } else {
+                for (int j = 0; j < n; j ++) {
+                    addRow(planes[fusedSlots[j]], rowOffsets[j], shiftX[j], w, j == 0);
+                }
+                for (int x = 0; x < w; x ++) {
+                    luminance[out + x] = (byte) (rowSums[x] / n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a horizontally shifted row to {@link #rowSums}, repeating the edge pixels
+     */
+    private void addRow(byte[] plane, int offset, int dx, int w, boolean first) {
+        int[] sums = rowSums;
+        if (first) {
+            for (int x = 0; x < w; x ++) {
+                sums[x] = 0;
+            }
+        }
+        int from = Math.min(w, Math.max(0, -dx));
+        int to = Math.max(from, Math.min(w, w - dx));
+        int left = plane[offset] & 0xff;
+        int right = plane[offset + w - 1] & 0xff;
+        for (int x = 0; x < from; x ++) {
+            sums[x] += left;
+        }
+        for (int x = from, src = offset + from + dx; x < to; x ++, src ++) {
+            sums[x] += plane[src] & 0xff;
+        }
+        for (int x = to; x < w; x ++) {
+            sums[x] += right;
+        }
+    }
+
+    /**
+     * Subsampled mean luminance of a region
+     */
+    static int meanLuminance(byte[] luminance, int width, int[] roi) {
+        int stepX = Math.max(1, (roi[2] - roi[0]) / SAMPLES_PER_SIDE);
+        int stepY = Math.max(1, (roi[3] - roi[1]) / SAMPLES_PER_SIDE);
+        long sum = 0;
+        int n = 0;
+        for (int y = roi[1]; y < roi[3]; y += stepY) {
+            int row = y * width;
+            for (int x = roi[0]; x < roi[2]; x += stepX) {
+                sum += luminance[row + x] & 0xff;
+                n ++;
+            }
+        }
+        return n == 0 ? 0 : (int) (sum / n);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public int getLastLuminance() {
+        return lastLuminance;
+    }
+
+    public long getFramesFused() {
+        return framesFused;
+    }
+}
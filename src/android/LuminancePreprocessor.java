@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Luminance preprocessing retried when the plain detection pass finds nothing (preprocess.*)
+ *
+ * Each pass is one or more stages applied in order to the detection area of a copy of the frame:
+ * <ul>
+ * <li>"invert": light-on-dark codes</li>
+ * <li>"clahe": contrast limited adaptive histogram equalization, for low-contrast codes</li>
+ * <li>"binarize": adaptive (local mean) threshold</li>
+ * </ul>
+ * e.g. {@code ["invert", "clahe+binarize"]}. Failed frames retry the passes in turn, one pass per
+ * frame, so a failed frame costs at most one extra detection and frames that decode plainly cost
+ * nothing. As a retry costs a frame copy, the passes and a second detection, only one of every
+ * {@code interval} failed frames is retried, and only when its detection area has enough texture to
+ * hold a code (not a plain wall or desk). The work buffers are reused until the frame or detection
+ * area size changes.
+ */
+public class LuminancePreprocessor {
+
+    public static final String INVERT = "invert";
+    public static final String CLAHE = "clahe";
+    public static final String BINARIZE = "binarize";
+
+    /** CLAHE tiles per side */
+    private static final int CLAHE_TILES = 8;
+    /** CLAHE clip limit, relative to the mean histogram bin */
+    private static final int CLAHE_CLIP = 3;
+    /** Binarization threshold: gray levels below the local mean */
+    private static final int BINARIZE_OFFSET = 2;
+
+    private final String[][] passes;
+    private final int interval;
+    private final double minTexture;
+    private int nextPass = 0;
+    private int failedFrames = 0;
+    private String lastPass;
+
+    private byte[] buffer;
+    private final int[] histogram = new int[256];
+    private final byte[] luts = new byte[CLAHE_TILES * CLAHE_TILES * 256];
+    private int[] integral;
+    private Runnable allocationListener;
+
+    private long retries = 0;
+    private long skipped = 0;
+    private long detections = 0;
+
+    /**
+     * @param passes     passes, each stage names joined with "+"
+     * @param interval   failed frames per retry (1: every failed frame)
+     * @param minTexture sharpness score of the detection area below which a failed frame is not retried
+     * @throws IllegalArgumentException if a stage name is unknown
+     */
+    public LuminancePreprocessor(String[] passes, int interval, double minTexture) {
+        this.interval = Math.max(1, interval);
+        this.minTexture = minTexture;
+        List<String[]> parsed = new ArrayList<>();
+        for (String pass : passes) {
+            String[] stages = pass.split("\\+");
+            for (String stage : stages) {
+                if (!INVERT.equals(stage) && !CLAHE.equals(stage) && !BINARIZE.equals(stage)) {
+                    throw new IllegalArgumentException("Unknown preprocess stage: " + stage);
+                }
+            }
+            parsed.add(stages);
+        }
+        this.passes = parsed.toArray(new String[0][]);
+    }
+
+    /**
+     * @return false if no pass is configured
+     */
+    public boolean hasPasses() {
+        return passes.length > 0;
+    }
+
+    /**
+     * Decide whether a frame in which the plain pass found nothing is retried
+     *
+     * @param nv21  frame
+     * @param width frame width
+     * @param roi   {left, top, right, bottom} detection area
+     * @return false if the retry is skipped (counted in {@link #getSkipped()})
+     */
+    public boolean shouldRetry(byte[] nv21, int width, int[] roi) {
+        failedFrames ++;
+        // 間隔に達したフレームのみテクスチャを確認する  the texture is only scored once the interval is reached
+        if (failedFrames < interval || FrameQualityGate.sharpness(nv21, width, roi) < minTexture) {
+            skipped ++;
+            return false;
+        }
+        failedFrames = 0;
+        return true;
+    }
+
+    /**
+     * Apply the next pass to a copy of a frame
+     *
+     * @param nv21   frame (not modified)
+     * @param width  frame width
+     * @param height frame height
+     * @param roi    {left, top, right, bottom} detection area
+     * @return preprocessed NV21 frame (reused until the next call)
+     */
+    public byte[] prepare(byte[] nv21, int width, int height, int[] roi) {
+        int frameSize = width * height;
+        if (buffer == null || buffer.length != nv21.length) {
+            buffer = new byte[nv21.length];
+            // 色差は無彩色で固定  chroma stays neutral
+            Arrays.fill(buffer, frameSize, buffer.length, (byte) 128);
+            onAllocated();
+        }
+        System.arraycopy(nv21, 0, buffer, 0, frameSize);
+        String[] pass = passes[nextPass];
+        nextPass = (nextPass + 1) % passes.length;
+        for (String stage : pass) {
+            apply(stage, buffer, width, roi);
+        }
+        lastPass = String.join("+", pass);
+        retries ++;
+        return buffer;
+    }
+
+    /**
+     * @param listener called after a work buffer is (re)allocated, e.g. to check a memory budget
+     */
+    public void setAllocationListener(Runnable listener) {
+        allocationListener = listener;
+    }
+
+    private void onAllocated() {
+        if (allocationListener != null) {
+            allocationListener.run();
+        }
+    }
+
+    /**
+     * Drop the work buffers; the next pass reallocates them
+     */
+    public void release() {
+        buffer = null;
+        integral = null;
+    }
+
+    /**
+     * @return bytes of the work buffers
+     */
+    public long getBufferBytes() {
+        return (buffer != null ? buffer.length : 0) + (integral != null ? 4L * integral.length : 0);
+    }
+
+    /**
+     * Count a code found by the last pass
+     */
+    public void onDetected() {
+        detections ++;
+    }
+
+    private void apply(String stage, byte[] luminance, int width, int[] roi) {
+        switch (stage) {
+            case INVERT:
+                invert(luminance, width, roi);
+                break;
+            case CLAHE:
+                clahe(luminance, width, roi);
+                break;
+            case BINARIZE:
+                binarize(luminance, width, roi);
+                break;
+        }
+    }
+
+    /**
+     * Invert the luminance of a region
+     */
+    static void invert(byte[] luminance, int width, int[] roi) {
+        for (int y = roi[1]; y < roi[3]; y ++) {
+            int row = y * width;
+            for (int i = row + roi[0]; i < row + roi[2]; i ++) {
+                luminance[i] = (byte) ~luminance[i];
+            }
+        }
+    }
+
+    /**
+     * Contrast limited adaptive histogram equalization of a region
+     *
+     * Builds a clipped equalization table per tile and interpolates bilinearly between the
+     * tables of the four nearest tile centers.
+     */
+    void clahe(byte[] luminance, int width, int[] roi) {
+        int w = roi[2] - roi[0];
+        int h = roi[3] - roi[1];
+        if (w < CLAHE_TILES || h < CLAHE_TILES) {
+            return;
+        }
+        for (int ty = 0; ty < CLAHE_TILES; ty ++) {
+            for (int tx = 0; tx < CLAHE_TILES; tx ++) {
+                buildLut(luminance, width,
+                        roi[0] + tx * w / CLAHE_TILES, roi[1] + ty * h / CLAHE_TILES,
+                        roi[0] + (tx + 1) * w / CLAHE_TILES, roi[1] + (ty + 1) * h / CLAHE_TILES,
+                        (ty * CLAHE_TILES + tx) * 256);
+            }
+        }
+        for (int y = 0; y < h; y ++) {
+            // タイル中心間の位置 (固定小数点 8bit)  position between tile centers, 8-bit fixed point
+            int fy = Math.max(0, (y * CLAHE_TILES << 8) / h - 128);
+            int ty0 = Math.min(CLAHE_TILES - 1, fy >> 8);
+            int ty1 = Math.min(CLAHE_TILES - 1, ty0 + 1);
+            int ay = ty0 == CLAHE_TILES - 1 ? 0 : fy & 0xff;
+            int row = (roi[1] + y) * width + roi[0];
+            for (int x = 0; x < w; x ++) {
+                int fx = Math.max(0, (x * CLAHE_TILES << 8) / w - 128);
+                int tx0 = Math.min(CLAHE_TILES - 1, fx >> 8);
+                int tx1 = Math.min(CLAHE_TILES - 1, tx0 + 1);
+                int ax = tx0 == CLAHE_TILES - 1 ? 0 : fx & 0xff;
+                int l = luminance[row + x] & 0xff;
+                int v00 = luts[((ty0 * CLAHE_TILES + tx0) << 8) + l] & 0xff;
+                int v01 = luts[((ty0 * CLAHE_TILES + tx1) << 8) + l] & 0xff;
+                int v10 = luts[((ty1 * CLAHE_TILES + tx0) << 8) + l] & 0xff;
+                int v11 = luts[((ty1 * CLAHE_TILES + tx1) << 8) + l] & 0xff;
+                int top = (v00 << 8) + (v01 - v00) * ax;
+                int bottom = (v10 << 8) + (v11 - v10) * ax;
+                luminance[row + x] = (byte) (((top << 8) + (bottom - top) * ay) >> 16);
+            }
+        }
+    }
+
+    private void buildLut(byte[] luminance, int width, int left, int top, int right, int bottom, int offset) {
+        Arrays.fill(histogram, 0);
+        for (int y = top; y < bottom; y ++) {
+            int row = y * width;
+            for (int i = row + left; i < row + right; i ++) {
+                histogram[luminance[i] & 0xff] ++;
+            }
+        }
+        int pixels = Math.max(1, (right - left) * (bottom - top));
+        int limit = Math.max(1, CLAHE_CLIP * pixels / 256);
+        int excess = 0;
+        for (int i = 0; i < 256; i ++) {
+            if (histogram[i] > limit) {
+                excess += histogram[i] - limit;
+                histogram[i] = limit;
+            }
+        }
+        // 切り取った分を全階調に均等に配分  redistribute the clipped counts
+        int bonus = excess / 256;
+        int remainder = excess % 256;
+        int cdf = 0;
+        for (int i = 0; i < 256; i ++) {
+            cdf += histogram[i] + bonus + (i < remainder ? 1 : 0);
+            luts[offset + i] = (byte) Math.min(255, cdf * 255 / pixels);
+        }
+    }
+
+    /**
+     * Adaptive threshold of a region against the local mean (integral image)
+     */
+    void binarize(byte[] luminance, int width, int[] roi) {
+        int w = roi[2] - roi[0];
+        int h = roi[3] - roi[1];
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        int stride = w + 1;
+        if (integral == null || integral.length < stride * (h + 1)) {
+            integral = new int[stride * (h + 1)];
+            onAllocated();
+        }
+        for (int y = 0; y < h; y ++) {
+            int row = (roi[1] + y) * width + roi[0];
+            int rowSum = 0;
+            for (int x = 0; x < w; x ++) {
+                rowSum += luminance[row + x] & 0xff;
+                integral[(y + 1) * stride + x + 1] = integral[y * stride + x + 1] + rowSum;
+            }
+        }
+        int radius = Math.max(4, Math.min(w, h) / 16);
+        for (int y = 0; y < h; y ++) {
+            int y0 = Math.max(0, y - radius);
+            int y1 = Math.min(h, y + radius + 1);
+            int row = (roi[1] + y) * width + roi[0];
+            for (int x = 0; x < w; x ++) {
+                int x0 = Math.max(0, x - radius);
+                int x1 = Math.min(w, x + radius + 1);
+                int area = (x1 - x0) * (y1 - y0);
+                int sum = integral[y1 * stride + x1] - integral[y0 * stride + x1]
+                        - integral[y1 * stride + x0] + integral[y0 * stride + x0];
+                int l = luminance[row + x] & 0xff;
+                luminance[row + x] = (l + BINARIZE_OFFSET) * area <= sum ? 0 : (byte) 255;
+            }
+        }
+    }
+
+    /**
+     * @return stages of the last pass, e.g. "clahe+binarize"
+     */
+    public String getLastPass() {
+        return lastPass;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getDetections() {
+        return detections;
+    }
+}
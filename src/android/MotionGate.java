@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+
+/**
+ * Gyroscope gate: frames captured while the device rotates fast are motion blurred
+ */
+public class MotionGate implements SensorEventListener {
+
+    private final SensorManager sensorManager;
+    private final Sensor gyroscope;
+    private final float maxAngularRate;
+
+    private volatile float angularRate = 0;
+    private long framesDropped = 0;
+
+    /**
+     * @param context        context
+     * @param maxAngularRate angular rate (rad/s) above which frames are dropped
+     */
+    public MotionGate(Context context, float maxAngularRate) {
+        this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.gyroscope = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) : null;
+        this.maxAngularRate = maxAngularRate;
+    }
+
+    public void start() {
+        if (gyroscope != null) {
+            sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_GAME);
+        }
+    }
+
+    public void stop() {
+        if (gyroscope != null) {
+            sensorManager.unregisterListener(this);
+        }
+        angularRate = 0;
+    }
+
+    /**
+     * @return true if the device is steady enough for a sharp frame
+     */
+    public boolean accept() {
+        if (angularRate > maxAngularRate) {
+            framesDropped ++;
+            return false;
+        }
+        return true;
+    }
+
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float x = event.values[0];
+        float y = event.values[1];
+        float z = event.values[2];
+        angularRate = (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
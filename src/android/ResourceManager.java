@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Large buffers, bitmaps and detector clients held by the plugin (memoryUsage action, memory.*)
+ *
+ * Resources are released in tiers: caches first, then work buffers, and the resources of the
+ * running scanner only once its screen is hidden. {@link #onTrimMemory(int)} releases the tiers
+ * matching the trim level; exceeding the budget releases caches and work buffers, never the frame
+ * buffer or detector in use. Every released resource is rebuilt by its owner on next use.
+ * Resources are chosen under the lock and released outside it, so a release may take the owner's
+ * locks (or call back into the manager) without lock-order inversion.
+ * One instance per process, registered for the application's component callbacks.
+ */
+public class ResourceManager implements ComponentCallbacks2 {
+    private static final String TAG = "ResourceManager";
+
+    /** Caches and debug images */
+    public static final int TIER_CACHE = 0;
+    /** Work buffers of optional stages, reallocated by the next frame that needs them */
+    public static final int TIER_BUFFER = 1;
+    /** Frame buffer and detector clients of a scanner, released while it is not visible */
+    public static final int TIER_ACTIVE = 2;
+
+    /**
+     * A releasable resource; released on the main thread
+     */
+    public interface Resource {
+        /**
+         * @return bytes currently held, 0 if unknown (detector clients, whose memory shows in the native heap)
+         */
+        long getBytes();
+
+        /**
+         * Drop the resource; the owner recreates it on next use
+         */
+        void release();
+    }
+
+    private static ResourceManager instance;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable enforceRunnable = this::enforceBudget;
+    private final List<Entry> entries = new ArrayList<>();
+    private final long defaultBudget;
+    private long budget;
+    private int trims = 0;
+    private int lastTrimLevel = -1;
+    private long releasedBytes = 0;
+
+    private static class Entry {
+        final String name;
+        final int tier;
+        final Resource resource;
+
+        Entry(String name, int tier, Resource resource) {
+            this.name = name;
+            this.tier = tier;
+            this.resource = resource;
+        }
+    }
+
+    private ResourceManager(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // ヒープ上限の 1/8 (WebView 側に余裕を残す)  an eighth of the app heap limit
+        defaultBudget = activityManager.getMemoryClass() * 1024L * 1024L / 8;
+        budget = defaultBudget;
+    }
+
+    /**
+     * @return manager of the process, registered for trim callbacks on first use
+     */
+    public static synchronized ResourceManager getInstance(Context context) {
+        if (instance == null) {
+            Context application = context.getApplicationContext();
+            instance = new ResourceManager(application);
+            application.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @param name     name in the usage report
+     * @param tier     TIER_XXXX
+     * @param resource resource
+     */
+    public void register(String name, int tier, Resource resource) {
+        synchronized (this) {
+            entries.add(new Entry(name, tier, resource));
+        }
+        checkBudget();
+    }
+
+    public synchronized void unregister(Resource resource) {
+        for (int i = entries.size() - 1; i >= 0; i --) {
+            if (entries.get(i).resource == resource) {
+                entries.remove(i);
+            }
+        }
+    }
+
+    /**
+     * @param budgetBytes budget of the tracked resources, or 0 or less for the default
+     */
+    public synchronized void setBudget(long budgetBytes) {
+        budget = budgetBytes > 0 ? budgetBytes : defaultBudget;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Release caches and work buffers while the tracked resources exceed the budget
+     *
+     * Called on registration; owners call it whenever a tracked resource allocates or changes size.
+     * May be called on any thread. The budget is enforced on the main thread after the current task,
+     * so a buffer is never released while the stage that just allocated it is still using it.
+     */
+    public void checkBudget() {
+        mainHandler.removeCallbacks(enforceRunnable);
+        mainHandler.post(enforceRunnable);
+    }
+
+    private void enforceBudget() {
+        List<Entry> victims = new ArrayList<>();
+        long total;
+        long limit;
+        synchronized (this) {
+            total = getTrackedBytes();
+            limit = budget;
+            for (int tier = TIER_CACHE; tier <= TIER_BUFFER && total > limit; tier ++) {
+                for (int i = 0; i < entries.size() && total > limit; i ++) {
+                    Entry entry = entries.get(i);
+                    long bytes = entry.resource.getBytes();
+                    if (entry.tier == tier && bytes > 0) {
+                        victims.add(entry);
+                        total -= bytes;
+                    }
+                }
+            }
+        }
+        release(victims);
+        if (total > limit) {
+            Log.d(TAG, "Over budget: " + total + " / " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Release all resources up to a tier; must be called on the main thread
+     *
+     * @param maxTier TIER_XXXX
+     * @return released bytes
+     */
+    public long release(int maxTier) {
+        List<Entry> victims = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (entry.tier <= maxTier) {
+                    victims.add(entry);
+                }
+            }
+        }
+        return release(victims);
+    }
+
+    /**
+     * Release a snapshot of entries; called without holding the lock
+     */
+    private long release(List<Entry> victims) {
+        long released = 0;
+        for (Entry entry : victims) {
+            long bytes = entry.resource.getBytes();
+            entry.resource.release();
+            released += bytes;
+        }
+        synchronized (this) {
+            releasedBytes += released;
+        }
+        return released;
+    }
+
+    /**
+     * @return bytes held by the tracked resources
+     */
+    public synchronized long getTrackedBytes() {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.resource.getBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return trim callbacks handled
+     */
+    public synchronized int getTrims() {
+        return trims;
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        int maxTier;
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            maxTier = TIER_ACTIVE;
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            maxTier = TIER_BUFFER;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            maxTier = TIER_CACHE;
+        } else {
+            return;
+        }
+        synchronized (this) {
+            trims ++;
+            lastTrimLevel = level;
+        }
+        long released = release(maxTier);
+        Log.d(TAG, "Trim level " + level + ": released " + released + " bytes");
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * ${inheritDoc}
+     */
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * Memory usage report
+     *
+     * <pre>
+     * { "budgetBytes": 33554432, "trackedBytes": 1382400, "releasedBytes": 0, "trims": 0,
+     *   "resources": [ { "name": "frameBuffer", "tier": 2, "bytes": 1382400 } ],
+     *   "nativeHeapAllocatedBytes": ..., "nativeHeapSizeBytes": ...,
+     *   "javaHeapUsedBytes": ..., "javaHeapMaxBytes": ... }
+     * </pre>
+     */
+    public synchronized JSONObject getUsage() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONArray resources = new JSONArray();
+            for (Entry entry : entries) {
+                JSONObject resource = new JSONObject();
+                resource.put("name", entry.name);
+                resource.put("tier", entry.tier);
+                resource.put("bytes", entry.resource.getBytes());
+                resources.put(resource);
+            }
+            Runtime runtime = Runtime.getRuntime();
+            json.put("budgetBytes", budget);
+            json.put("trackedBytes", getTrackedBytes());
+            json.put("releasedBytes", releasedBytes);
+            json.put("trims", trims);
+            if (lastTrimLevel >= 0) {
+                json.put("lastTrimLevel", lastTrimLevel);
+            }
+            json.put("resources", resources);
+            json.put("nativeHeapAllocatedBytes", Debug.getNativeHeapAllocatedSize());
+            json.put("nativeHeapSizeBytes", Debug.getNativeHeapSize());
+            json.put("javaHeapUsedBytes", runtime.totalMemory() - runtime.freeMemory());
+            json.put("javaHeapMaxBytes", runtime.maxMemory());
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to create JSONObject");
+        }
+        return json;
+    }
+}
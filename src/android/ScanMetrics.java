@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters of a scan session
+ *
+ * Updated on the analyzer thread and returned with the scan result as "metrics".
+ */
+public class ScanMetrics {
+
+    private static final String TAG = "ScanMetrics";
+
+    private final long startTime = SystemClock.elapsedRealtime();
+    private final long startChargeCounter;
+    private final BatteryManager batteryManager;
+
+    /** Frames delivered by the camera */
+    public long framesReceived = 0;
+    /** Frames sent to the detector */
+    public long framesAnalyzed = 0;
+    /** Frames dropped while idle */
+    public long framesSkippedIdle = 0;
+    /** Number of active -> idle transitions */
+    public long idleTransitions = 0;
+
+    private String detectionMode = "single";
+    private long detections = 0;
+    private long detectionNanos = 0;
+    private long detectionMaxNanos = 0;
+    // tiling.compare: 検出経路ごとの {回数, 合計, 最大}  {count, total, max} per detection path
+    private final Map<String, long[]> comparedDetections = new LinkedHashMap<>();
+
+    private FrameRecorder recorder;
+    private FrameQualityGate qualityGate;
+    private MotionGate motionGate;
+    private StillCaptureFallback stillCapture;
+    private LowLightFusion lowLightFusion;
+    private LuminancePreprocessor preprocessor;
+    private SplitFormatDetector splitDetector;
+    private FountainDecoder fountainDecoder;
+    private FrameTap frameTap;
+    private LensSelector lensSelector;
+    private ResourceManager resourceManager;
+
+    private long intentTime;
+    /** Startup events in order of first occurrence, elapsedRealtime */
+    private final Map<String, Long> startup = new LinkedHashMap<>();
+
+    private long idleTime = 0;
+    private long idleSince = -1;
+
+    public ScanMetrics(Context context) {
+        batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        startChargeCounter = getChargeCounter();
+        intentTime = startTime;
+    }
+
+    /**
+     * @param intentTime elapsedRealtime when the plugin started the scanner, origin of the startup timeline
+     */
+    public void setIntentTime(long intentTime) {
+        this.intentTime = intentTime;
+    }
+
+    public void onStartupEvent(String event) {
+        onStartupEvent(event, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Record a startup event; only the first occurrence of each event is kept
+     */
+    public void onStartupEvent(String event, long time) {
+        if (!startup.containsKey(event)) {
+            startup.put(event, time);
+        }
+    }
+
+    /**
+     * @param recorder frame recorder of the session (debug.record)
+     */
+    public void setRecorder(FrameRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @param qualityGate sharpness gate, or null
+     * @param motionGate  gyroscope gate, or null
+     */
+    public void setQualityGates(FrameQualityGate qualityGate, MotionGate motionGate) {
+        this.qualityGate = qualityGate;
+        this.motionGate = motionGate;
+    }
+
+    /**
+     * @param stillCapture still capture fallback (still.enabled), or null
+     */
+    public void setStillCapture(StillCaptureFallback stillCapture) {
+        this.stillCapture = stillCapture;
+    }
+
+    /**
+     * @param lowLightFusion low-light fusion stage (fusion.enabled), or null
+     */
+    public void setLowLightFusion(LowLightFusion lowLightFusion) {
+        this.lowLightFusion = lowLightFusion;
+    }
+
+    /**
+     * @param preprocessor luminance preprocessing retried on failed frames (preprocess.enabled), or null
+     */
+    public void setPreprocessor(LuminancePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
+
+    /**
+     * @param splitDetector split-format detector (split.enabled), or null
+     */
+    public void setSplitDetector(SplitFormatDetector splitDetector) {
+        this.splitDetector = splitDetector;
+    }
+
+    /**
+     * @param fountainDecoder animated QR assembler (receive.enabled), or null
+     */
+    public void setFountainDecoder(FountainDecoder fountainDecoder) {
+        this.fountainDecoder = fountainDecoder;
+    }
+
+    /**
+     * @param frameTap frame stream to JavaScript (frames.enabled), or null
+     */
+    public void setFrameTap(FrameTap frameTap) {
+        this.frameTap = frameTap;
+    }
+
+    /**
+     * @param lensSelector camera selection of the session
+     */
+    public void setLensSelector(LensSelector lensSelector) {
+        this.lensSelector = lensSelector;
+    }
+
+    /**
+     * @param resourceManager tracker of the scanner buffers and detector clients
+     */
+    public void setResourceManager(ResourceManager resourceManager) {
+        this.resourceManager = resourceManager;
+    }
+
+    /**
+     * @param detectionMode name of the detection path, reported with the latency
+     */
+    public void setDetectionMode(String detectionMode) {
+        this.detectionMode = detectionMode;
+    }
+
+    /**
+     * @param nanos latency from detector submit to completion
+     */
+    public void onDetectionComplete(long nanos) {
+        detections ++;
+        detectionNanos += nanos;
+        detectionMaxNanos = Math.max(detectionMaxNanos, nanos);
+    }
+
+    /**
+     * @param mode  detection path of the frame ("tiled" or "single") in tiling.compare
+     * @param nanos latency from detector submit to completion
+     */
+    public void onComparedDetection(String mode, long nanos) {
+        long[] stats = comparedDetections.get(mode);
+        if (stats == null) {
+            stats = new long[3];
+            comparedDetections.put(mode, stats);
+        }
+        stats[0] ++;
+        stats[1] += nanos;
+        stats[2] = Math.max(stats[2], nanos);
+    }
+
+    public void onIdle() {
+        if (idleSince < 0) {
+            idleSince = SystemClock.elapsedRealtime();
+            idleTransitions ++;
+        }
+    }
+
+    public void onActive() {
+        if (idleSince >= 0) {
+            idleTime += SystemClock.elapsedRealtime() - idleSince;
+            idleSince = -1;
+        }
+    }
+
+    /**
+     * @return battery charge counter in microampere-hours, or Long.MIN_VALUE if unsupported
+     */
+    private long getChargeCounter() {
+        if (batteryManager == null) {
+            return Long.MIN_VALUE;
+        }
+        int value = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+        // 未対応端末では 0 または Integer.MIN_VALUE が返る
+        return value == 0 || value == Integer.MIN_VALUE ? Long.MIN_VALUE : value;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        long now = SystemClock.elapsedRealtime();
+        long idle = idleTime + (idleSince >= 0 ? now - idleSince : 0);
+        try {
+            json.put("durationMs", now - startTime);
+            json.put("idleMs", idle);
+            json.put("idleTransitions", idleTransitions);
+            json.put("framesReceived", framesReceived);
+            json.put("framesAnalyzed", framesAnalyzed);
+            json.put("framesSkippedIdle", framesSkippedIdle);
+            json.put("detectionMode", detectionMode);
+            JSONObject timeline = new JSONObject();
+            for (Map.Entry<String, Long> event : startup.entrySet()) {
+                timeline.put(event.getKey(), event.getValue() - intentTime);
+            }
+            json.put("startup", timeline);
+            if (detections > 0) {
+                json.put("detectionMeanMs", detectionNanos / 1e6 / detections);
+                json.put("detectionMaxMs", detectionMaxNanos / 1e6);
+            }
+            if (!comparedDetections.isEmpty()) {
+                JSONObject comparison = new JSONObject();
+                for (Map.Entry<String, long[]> entry : comparedDetections.entrySet()) {
+                    long[] stats = entry.getValue();
+                    JSONObject mode = new JSONObject();
+                    mode.put("detections", stats[0]);
+                    mode.put("meanMs", stats[1] / 1e6 / stats[0]);
+                    mode.put("maxMs", stats[2] / 1e6);
+                    comparison.put(entry.getKey(), mode);
+                }
+                json.put("detectionComparison", comparison);
+            }
+            if (lensSelector != null) {
+                json.put("lensSelection", lensSelector.getSelection());
+                if (lensSelector.getCameraId() != null) {
+                    json.put("cameraId", lensSelector.getCameraId());
+                }
+                if (lensSelector.getPixelsPerMm() > 0) {
+                    json.put("lensPixelsPerMm", lensSelector.getPixelsPerMm());
+                }
+            }
+            if (resourceManager != null) {
+                json.put("memoryBudgetBytes", resourceManager.getBudget());
+                json.put("memoryTrackedBytes", resourceManager.getTrackedBytes());
+                json.put("memoryTrims", resourceManager.getTrims());
+                json.put("nativeHeapAllocatedBytes", Debug.getNativeHeapAllocatedSize());
+            }
+            if (splitDetector != null) {
+                json.put("splitGroups", splitDetector.getGroupStats());
+            }
+            if (qualityGate != null) {
+                json.put("framesDroppedBlur", qualityGate.getFramesDropped());
+                json.put("sharpnessMean", qualityGate.getMeanPassedScore());
+                json.put("sharpnessThreshold", qualityGate.getThreshold());
+            }
+            if (motionGate != null) {
+                json.put("framesDroppedMotion", motionGate.getFramesDropped());
+            }
+            if (lowLightFusion != null) {
+                json.put("framesFused", lowLightFusion.getFramesFused());
+                json.put("luminance", lowLightFusion.getLastLuminance());
+            }
+            if (preprocessor != null) {
+                json.put("preprocessRetries", preprocessor.getRetries());
+                json.put("preprocessSkipped", preprocessor.getSkipped());
+                json.put("preprocessDetections", preprocessor.getDetections());
+            }
+            if (stillCapture != null) {
+                json.put("stillCaptures", stillCapture.getCaptures());
+                json.put("stillDetections", stillCapture.getDetections());
+            }
+            if (fountainDecoder != null) {
+                json.put("receiveBytes", fountainDecoder.getLength());
+                json.put("receiveProgress", fountainDecoder.getProgress());
+                json.put("receiveMs", fountainDecoder.getElapsedMillis());
+                json.put("receiveBytesPerSecond", fountainDecoder.getBytesPerSecond());
+                json.put("chunksReceived", fountainDecoder.getChunksReceived());
+                json.put("chunksDuplicate", fountainDecoder.getChunksDuplicate());
+                json.put("chunksRejected", fountainDecoder.getChunksRejected());
+                json.put("checksumErrors", fountainDecoder.getChecksumErrors());
+            }
+            if (frameTap != null) {
+                json.put("framesTapped", frameTap.getFramesSent());
+                json.put("framesTapDropped", frameTap.getFramesDropped());
+            }
+            if (recorder != null) {
+                json.put("recordFile", recorder.getFile().getAbsolutePath());
+                json.put("framesRecorded", recorder.getFramesRecorded());
+                json.put("framesRecordDropped", recorder.getFramesDropped());
+            }
+            long chargeCounter = getChargeCounter();
+            if (startChargeCounter != Long.MIN_VALUE && chargeCounter != Long.MIN_VALUE) {
+                json.put("batteryChargeUsedUah", startChargeCounter - chargeCounter);
+            }
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to create JSONObject");
+        }
+        return json;
+    }
+}
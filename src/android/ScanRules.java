@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.content.Intent;
+import android.util.Log;
+
+import com.google.mlkit.vision.barcode.common.Barcode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Validation rules for detected barcodes
+ *
+ * Rules are compiled once per scan session from the "rules.*" options and evaluated
+ * on the analyzer result path, so rejected codes never update the UI or reach JavaScript.
+ */
+public class ScanRules {
+    private static final String TAG = "ScanRules";
+
+    public static final String CHECK_DIGIT_NONE = "none";
+    public static final String CHECK_DIGIT_MOD10 = "mod10";
+    public static final String CHECK_DIGIT_LUHN = "luhn";
+    public static final String CHECK_DIGIT_MOD43 = "mod43";
+
+    private static final String MOD43_CHARSET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-. $/+%";
+
+    private final String[] prefixes;
+    private final Pattern pattern;
+    private final int minLength;
+    private final int maxLength;
+    private final int formats;
+    private final String checkDigit;
+    private final boolean requireGs1;
+    private final boolean empty;
+
+    private ScanRules(String[] prefixes, Pattern pattern, int minLength, int maxLength,
+                      int formats, String checkDigit, boolean requireGs1) {
+        this.prefixes = prefixes;
+        this.pattern = pattern;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.formats = formats;
+        this.checkDigit = checkDigit;
+        this.requireGs1 = requireGs1;
+        this.empty = prefixes == null && pattern == null && minLength <= 0 && maxLength <= 0
+                && formats == 0 && CHECK_DIGIT_NONE.equals(checkDigit) && !requireGs1;
+    }
+
+    /**
+     * Compile rules from scanner intent extras
+     *
+     * @param intent scanner intent (options flattened by BarcodeScanner.setIntentExtras)
+     * @return compiled rules
+     */
+    public static ScanRules fromIntent(Intent intent) {
+        String[] prefixes = intent.getStringArrayExtra("rules.prefix");
+        if (prefixes == null) {
+            String prefix = intent.getStringExtra("rules.prefix");
+            if (prefix != null && prefix.length() > 0) {
+                prefixes = new String[]{prefix};
+            }
+        }
+
+        Pattern pattern = null;
+        String regex = intent.getStringExtra("rules.regex");
+        if (regex != null && regex.length() > 0) {
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                // 不正な正規表現は全件拒否とする  reject everything rather than accept unvalidated codes
+                Log.w(TAG, "Invalid rules.regex, rejecting all codes: " + e.getMessage());
+                pattern = Pattern.compile("(?!)");
+            }
+        }
+
+        int formats = 0;
+        String[] formatNames = intent.getStringArrayExtra("rules.formats");
+        if (formatNames == null) {
+            String formatName = intent.getStringExtra("rules.formats");
+            if (formatName != null && formatName.length() > 0) {
+                formatNames = formatName.split(",");
+            }
+        }
+        if (formatNames != null) {
+            for (String name : formatNames) {
+                int format = BarcodeScannerActivity.getBarcodeFormat(name.trim());
+                if (format != Barcode.FORMAT_UNKNOWN) {
+                    formats |= format;
+                } else {
+                    // FORMAT_UNKNOWN (-1) は全ビットが立つため混ぜない  would set every bit of the mask
+                    Log.w(TAG, "Unknown format in rules.formats: " + name);
+                }
+            }
+        }
+
+        String checkDigit = intent.getStringExtra("rules.checkDigit");
+        if (checkDigit == null) {
+            checkDigit = CHECK_DIGIT_NONE;
+        }
+        checkDigit = checkDigit.toLowerCase(Locale.ROOT);
+        if (!CHECK_DIGIT_NONE.equals(checkDigit) && !CHECK_DIGIT_MOD10.equals(checkDigit)
+                && !CHECK_DIGIT_LUHN.equals(checkDigit) && !CHECK_DIGIT_MOD43.equals(checkDigit)) {
+            // 不正な正規表現と同じく全件拒否とする  rejects everything, like an invalid regex
+            Log.w(TAG, "Unknown rules.checkDigit, rejecting all codes: " + checkDigit);
+        }
+
+        return new ScanRules(
+                prefixes,
+                pattern,
+                intent.getIntExtra("rules.minLength", 0),
+                intent.getIntExtra("rules.maxLength", 0),
+                formats,
+                checkDigit,
+                intent.getBooleanExtra("rules.gs1", false));
+    }
+
+    /**
+     * @return true if no rule is configured
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Evaluate rules against a detected barcode
+     *
+     * @param barcode detected barcode
+     * @return true if accepted
+     */
+    public boolean accept(Barcode barcode) {
+        String value = barcode.getDisplayValue();
+        if (value == null) {
+            return false;
+        }
+        if (empty) {
+            return true;
+        }
+        return accept(value, barcode.getRawBytes(), barcode.getFormat());
+    }
+
+    private boolean accept(String value, byte[] rawBytes, int format) {
+        // 安いチェックから順に評価する  cheapest checks first
+        if (formats != 0 && (formats & format) == 0) {
+            return false;
+        }
+        int length = value.length();
+        if (minLength > 0 && length < minLength) {
+            return false;
+        }
+        if (maxLength > 0 && length > maxLength) {
+            return false;
+        }
+        if (prefixes != null && !hasPrefix(value)) {
+            return false;
+        }
+        if (!isValidCheckDigit(value)) {
+            return false;
+        }
+        if (requireGs1 && !Gs1Parser.parse(
+                rawBytes != null ? rawBytes : value.getBytes(StandardCharsets.ISO_8859_1), null)) {
+            return false;
+        }
+        if (pattern != null && !pattern.matcher(value).matches()) {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasPrefix(String value) {
+        for (String prefix : prefixes) {
+            if (value.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isValidCheckDigit(String value) {
+        switch (checkDigit) {
+            case CHECK_DIGIT_MOD10:
+                return isValidMod10(value);
+            case CHECK_DIGIT_LUHN:
+                return isValidLuhn(value);
+            case CHECK_DIGIT_MOD43:
+                return isValidMod43(value);
+            case CHECK_DIGIT_NONE:
+                return true;
+            default:
+                // 未知のチェックディジット  unknown check digit names are logged by fromIntent()
+                return false;
+        }
+    }
+
+    /**
+     * GS1 mod-10 check digit (EAN/UPC/ITF-14/GTIN/SSCC)
+     */
+    static boolean isValidMod10(CharSequence value) {
+        int length = value.length();
+        if (length < 2) {
+            return false;
+        }
+        int sum = 0;
+        // 末尾のチェックディジットの左隣から重み3,1を交互にかける
+        for (int i = length - 2, weight = 3; i >= 0; i--, weight = 4 - weight) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            sum += digit * weight;
+        }
+        int check = value.charAt(length - 1) - '0';
+        return check >= 0 && check <= 9 && (10 - sum % 10) % 10 == check;
+    }
+
+    /**
+     * Luhn (mod-10, weights 2,1) check digit
+     */
+    static boolean isValidLuhn(CharSequence value) {
+        int length = value.length();
+        if (length < 2) {
+            return false;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = length - 1; i >= 0; i--) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Code 39 mod-43 check character
+     */
+    static boolean isValidMod43(CharSequence value) {
+        int length = value.length();
+        if (length < 2) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < length - 1; i++) {
+            int index = MOD43_CHARSET.indexOf(value.charAt(i));
+            if (index < 0) {
+                return false;
+            }
+            sum += index;
+        }
+        return MOD43_CHARSET.charAt(sum % 43) == value.charAt(length - 1);
+    }
+}
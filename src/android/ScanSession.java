@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A plugin request (scan, decode, ...) and its own callback
+ *
+ * Every request gets a session id so that results of concurrent requests are routed
+ * to the callback that started them.
+ */
+public class ScanSession {
+
+    private static final String TAG = "ScanSession";
+
+    /** Number of distinct request codes available for scanner activities */
+    private static final int MAX_REQUEST_CODES = 10000;
+
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final int id;
+    private final String action;
+    private final JSONObject options;
+    private final CallbackContext callbackContext;
+
+    public ScanSession(String action, JSONObject options, CallbackContext callbackContext) {
+        this(nextId.getAndIncrement(), action, options, callbackContext);
+    }
+
+    ScanSession(int id, String action, JSONObject options, CallbackContext callbackContext) {
+        this.id = id;
+        this.action = action;
+        this.options = options;
+        this.callbackContext = callbackContext;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public JSONObject getOptions() {
+        return options;
+    }
+
+    public CallbackContext getCallbackContext() {
+        return callbackContext;
+    }
+
+    /**
+     * @param base first request code of the range
+     * @return activity request code of this session
+     */
+    public int getRequestCode(int base) {
+        return base + id % MAX_REQUEST_CODES;
+    }
+
+    /**
+     * @param base first request code of the range
+     * @return true if the request code belongs to the range
+     */
+    public static boolean isInRange(int requestCode, int base) {
+        return requestCode >= base && requestCode < base + MAX_REQUEST_CODES;
+    }
+
+    /**
+     * Send final result tagged with the session id
+     */
+    public void success(JSONObject result) {
+        putSessionId(result);
+        callbackContext.success(result);
+    }
+
+    /**
+     * Send final result tagged with the session id, followed by binary data (ArrayBuffer in JS)
+     */
+    public void success(JSONObject result, byte[] data) {
+        putSessionId(result);
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, Arrays.asList(
+                new PluginResult(PluginResult.Status.OK, result),
+                new PluginResult(PluginResult.Status.OK, data))));
+    }
+
+    /**
+     * Send intermediate result tagged with the session id, keeping the callback
+     */
+    public void progress(JSONObject result) {
+        putSessionId(result);
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
+    /**
+     * Send intermediate result tagged with the session id followed by binary data, keeping the callback
+     *
+     * The data is encoded when this method is called, so the buffer may be reused afterwards.
+     */
+    public void progress(JSONObject result, byte[] data) {
+        putSessionId(result);
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, Arrays.asList(
+                new PluginResult(PluginResult.Status.OK, result),
+                new PluginResult(PluginResult.Status.OK, data)));
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+    }
+
+    public void error(String message) {
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+    }
+
+    private void putSessionId(JSONObject result) {
+        try {
+            result.put("sessionId", id);
+        } catch (JSONException e) {
+            Log.d(TAG, "Failed to create JSONObject");
+        }
+    }
+}
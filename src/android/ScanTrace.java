@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * System trace (Perfetto / systrace) sections and counters of the scan pipeline (debug.trace)
+ *
+ * All methods return after a single field check while tracing is off. Async sections and counters
+ * need API 29 and are skipped on older devices. Capture with e.g.
+ * {@code perfetto -o trace.pftrace -t 10s --app <package> view camera gfx} and open the trace in
+ * ui.perfetto.dev; section names start with "MBS:".
+ */
+public final class ScanTrace {
+
+    private static final String PREFIX = "MBS:";
+
+    private static volatile boolean enabled = false;
+
+    private ScanTrace() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        ScanTrace.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Begin a section on the current thread, to be closed by {@link #end()} on the same thread
+     */
+    public static void begin(String name) {
+        if (enabled) {
+            Trace.beginSection(PREFIX + name);
+        }
+    }
+
+    public static void end() {
+        if (enabled) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Begin a section which may end on another thread or callback
+     *
+     * @param cookie distinguishes overlapping sections of the same name
+     */
+    public static void beginAsync(String name, int cookie) {
+        if (enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(PREFIX + name, cookie);
+        }
+    }
+
+    public static void endAsync(String name, int cookie) {
+        if (enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(PREFIX + name, cookie);
+        }
+    }
+
+    public static void counter(String name, long value) {
+        if (enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.setCounter(PREFIX + name, value);
+        }
+    }
+}
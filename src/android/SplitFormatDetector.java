@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Detection with the barcode formats split across concurrent detector clients (split.*)
+ *
+ * Each format group (e.g. linear 1D formats and 2D matrix formats) has its own client running on
+ * its own thread. All clients read the same frame buffer, and the first valid result completes the
+ * detection without waiting for the slower groups.
+ */
+public class SplitFormatDetector implements Closeable {
+
+    /** Linear (1D) formats */
+    public static final int LINEAR_FORMATS = Barcode.FORMAT_CODE_128 | Barcode.FORMAT_CODE_39
+            | Barcode.FORMAT_CODE_93 | Barcode.FORMAT_CODABAR | Barcode.FORMAT_EAN_13 | Barcode.FORMAT_EAN_8
+            | Barcode.FORMAT_ITF | Barcode.FORMAT_UPC_A | Barcode.FORMAT_UPC_E;
+    /** Matrix and stacked (2D) formats */
+    public static final int MATRIX_FORMATS = Barcode.FORMAT_QR_CODE | Barcode.FORMAT_DATA_MATRIX
+            | Barcode.FORMAT_AZTEC | Barcode.FORMAT_PDF417;
+
+    /**
+     * Decides whether a group result ends the detection
+     */
+    public interface Validator {
+        boolean isValid(List<Barcode> barcodes);
+    }
+
+    private static final String TAG = "SplitFormatDetector";
+
+    private final int[] formatGroups;
+    private final BarcodeScanner[] clients;
+    private final ExecutorService[] executors;
+    private final long[] groupNanos;
+    private final long[] groupRuns;
+    private final long[] groupWins;
+
+    private Task<Void> pending = Tasks.forResult(null);
+
+    /**
+     * @param formatGroups Barcode.FORMAT_* flags of each group
+     */
+    public SplitFormatDetector(int[] formatGroups) {
+        this.formatGroups = formatGroups;
+        int groups = formatGroups.length;
+        clients = new BarcodeScanner[groups];
+        executors = new ExecutorService[groups];
+        groupNanos = new long[groups];
+        groupRuns = new long[groups];
+        groupWins = new long[groups];
+        for (int i = 0; i < groups; i ++) {
+            // クライアント毎に専用スレッドで並列に実行する  one thread per client
+            executors[i] = Executors.newSingleThreadExecutor();
+        }
+    }
+
+    private BarcodeScanner getClient(int group) {
+        if (clients[group] == null) {
+            BarcodeScannerOptions options = new BarcodeScannerOptions.Builder()
+                    .setBarcodeFormats(formatGroups[group])
+                    .setExecutor(executors[group])
+                    .build();
+            clients[group] = BarcodeScanning.getClient(options);
+        }
+        return clients[group];
+    }
+
+    /**
+     * Detect barcodes with all groups concurrently
+     *
+     * The frame buffer must stay unchanged until {@link #getPending()} completes, which may be
+     * later than the returned task.
+     *
+     * @param nv21      frame
+     * @param width     frame width
+     * @param height    frame height
+     * @param rotation  frame rotation
+     * @param validator decides which group result is taken as soon as it arrives
+     * @return task completing with the first valid group result, or with the results of all groups;
+     *         fails if no group found a code and any group failed
+     */
+    public Task<List<Barcode>> process(byte[] nv21, int width, int height, int rotation, Validator validator) {
+        InputImage image = InputImage.fromByteArray(nv21, width, height, rotation, InputImage.IMAGE_FORMAT_NV21);
+        TaskCompletionSource<List<Barcode>> first = new TaskCompletionSource<>();
+        List<Task<List<Barcode>>> tasks = new ArrayList<>(clients.length);
+        List<Barcode> merged = new ArrayList<>();
+        int[] remaining = {clients.length};
+        // 最初に失敗したグループの例外  exception of the first failed group
+        Exception[] failure = {null};
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < clients.length; i ++) {
+            final int group = i;
+            Task<List<Barcode>> task = getClient(i).process(image);
+            task.addOnCompleteListener(result -> {
+                // リスナーはメインスレッドで順に呼ばれる  listeners run on the main thread
+                groupNanos[group] += SystemClock.elapsedRealtimeNanos() - start;
+                groupRuns[group] ++;
+                if (result.isSuccessful()) {
+                    merged.addAll(result.getResult());
+                    if (validator.isValid(result.getResult()) && first.trySetResult(result.getResult())) {
+                        groupWins[group] ++;
+                    }
+                } else if (failure[0] == null) {
+                    failure[0] = result.getException();
+                }
+                remaining[0] --;
+                if (remaining[0] == 0) {
+                    // 失敗したグループがあれば空の結果として扱わない  an empty result is only "no code" if every group ran
+                    if (merged.isEmpty() && failure[0] != null) {
+                        first.trySetException(failure[0]);
+                    } else {
+                        first.trySetResult(merged);
+                    }
+                }
+            });
+            tasks.add(task);
+        }
+        pending = Tasks.whenAll(tasks);
+        return first.getTask();
+    }
+
+    /**
+     * @return task completing when all groups of the last frame finished reading the frame buffer
+     */
+    public Task<Void> getPending() {
+        return pending;
+    }
+
+    /**
+     * @return per-group mean latency and number of frames the group answered first, in group order
+     */
+    public JSONArray getGroupStats() {
+        JSONArray stats = new JSONArray();
+        for (int i = 0; i < clients.length; i ++) {
+            JSONObject group = new JSONObject();
+            try {
+                group.put("meanMs", groupRuns[i] == 0 ? 0 : groupNanos[i] / 1e6 / groupRuns[i]);
+                group.put("firstResults", groupWins[i]);
+            } catch (JSONException e) {
+                Log.d(TAG, "Failed to create JSONObject");
+            }
+            stats.put(group);
+        }
+        return stats;
+    }
+
+    /**
+     * Close the detector clients once the groups of the running frame are done; the next frame
+     * recreates them. Must be called on the main thread.
+     */
+    public void release() {
+        Task<Void> running = pending;
+        running.addOnCompleteListener(task -> {
+            if (pending != running) {
+                // 次のフレームが始まった  a new frame started meanwhile
+                release();
+                return;
+            }
+            for (int i = 0; i < clients.length; i ++) {
+                if (clients[i] != null) {
+                    clients[i].close();
+                    clients[i] = null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Close detector clients and their threads
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < clients.length; i ++) {
+            if (clients[i] != null) {
+                clients[i].close();
+                clients[i] = null;
+            }
+            executors[i].shutdown();
+        }
+    }
+}
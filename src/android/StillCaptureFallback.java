@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.CameraControl;
+import androidx.camera.core.FocusMeteringAction;
+import androidx.camera.core.ImageCapture;
+import androidx.camera.core.ImageCaptureException;
+import androidx.camera.core.ImageProxy;
+import androidx.camera.core.MeteringPoint;
+import androidx.camera.view.PreviewView;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Full-resolution still capture fallback for dense codes (still.*)
+ *
+ * When the detection area keeps showing a textured (probable code) region that the analysis stream
+ * fails to decode for a number of frames, focuses on the detection area and takes one full-resolution
+ * JPEG still. Only the detection area is decoded from the JPEG (region decode), instead of a full JPEG
+ * to Bitmap round trip. The {@link ImageCapture} use case ({@link #getUseCase()}) is bound with preview
+ * and analysis for as long as the fallback is enabled, as binding it per still reconfigures the
+ * camera session and stalls the preview. The detection area is mapped through the crop rect and
+ * rotation of the still itself, which match the preview when the use cases share the view port.
+ */
+public class StillCaptureFallback {
+    private static final String TAG = "StillCaptureFallback";
+
+    /** Margin added around the detection area when cropping the still */
+    private static final float CROP_MARGIN = 0.15f;
+
+    /**
+     * Receives the barcodes found in the still (on the main thread)
+     */
+    public interface Callback {
+        void onStillDetected(List<Barcode> barcodes);
+    }
+
+    private final int triggerFrames;
+    private final double minTexture;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BarcodeScannerOptions scannerOptions;
+    // 撮影用スレッドでのみ生成・解放する  created and closed on the capture executor only
+    private BarcodeScanner scanner;
+
+    private final ImageCapture imageCapture;
+    private boolean bound = false;
+    private int undecodedFrames = 0;
+    private boolean capturing = false;
+    private long captures = 0;
+    private long detections = 0;
+
+    /**
+     * @param triggerFrames undecoded textured frames before a still is taken
+     * @param minTexture    sharpness score of the detection area regarded as a probable code
+     */
+    public StillCaptureFallback(int triggerFrames, double minTexture) {
+        this.triggerFrames = triggerFrames;
+        this.minTexture = minTexture;
+        scannerOptions = new BarcodeScannerOptions.Builder()
+                .setBarcodeFormats(Barcode.FORMAT_ALL_FORMATS)
+                .build();
+        imageCapture = new ImageCapture.Builder()
+                .setCaptureMode(ImageCapture.CAPTURE_MODE_MAXIMIZE_QUALITY)
+                .build();
+    }
+
+    /**
+     * @return use case to bind with preview and analysis
+     */
+    public ImageCapture getUseCase() {
+        return imageCapture;
+    }
+
+    /**
+     * @param bound false if the camera cannot stream the still capture use case with preview and
+     *              analysis; no still is taken then
+     */
+    public void setBound(boolean bound) {
+        this.bound = bound;
+    }
+
+    /**
+     * Account an analyzed frame
+     *
+     * @param decoded   true if the frame produced an accepted code
+     * @param luminance packed Y plane of the frame
+     * @param width     row width
+     * @param roi       detection area in frame coordinates
+     * @return true if a still should be captured now
+     */
+    public boolean onFrame(boolean decoded, byte[] luminance, int width, int[] roi) {
+        if (capturing || !bound) {
+            return false;
+        }
+        if (decoded || FrameQualityGate.sharpness(luminance, width, roi) < minTexture) {
+            undecodedFrames = 0;
+            return false;
+        }
+        undecodedFrames ++;
+        return undecodedFrames >= triggerFrames;
+    }
+
+    /**
+     * Focus on the detection area, capture a still and decode the detection area
+     *
+     * Must be called on the main thread.
+     *
+     * @param cameraControl control of the camera the use case is bound to
+     */
+    public void capture(CameraControl cameraControl, PreviewView previewView, float[] viewRect,
+                        Executor mainExecutor, Callback callback) {
+        capturing = true;
+        undecodedFrames = 0;
+        captures ++;
+        int traceCookie = (int) captures;
+        ScanTrace.beginAsync("stillCapture", traceCookie);
+
+        int viewWidth = previewView.getWidth();
+        int viewHeight = previewView.getHeight();
+        float marginX = (viewRect[2] - viewRect[0]) * CROP_MARGIN;
+        float marginY = (viewRect[3] - viewRect[1]) * CROP_MARGIN;
+        float[] areaRect = {
+                viewRect[0] - marginX, viewRect[1] - marginY, viewRect[2] + marginX, viewRect[3] + marginY};
+
+        MeteringPoint point = previewView.getMeteringPointFactory().createPoint(
+                (viewRect[0] + viewRect[2]) / 2, (viewRect[1] + viewRect[3]) / 2);
+        FocusMeteringAction action = new FocusMeteringAction.Builder(
+                point, FocusMeteringAction.FLAG_AF | FocusMeteringAction.FLAG_AE).build();
+        ListenableFuture<?> focus = cameraControl.startFocusAndMetering(action);
+        // フォーカス結果に関わらず撮影する  capture even if focusing fails
+        focus.addListener(() -> imageCapture.takePicture(executor, new ImageCapture.OnImageCapturedCallback() {
+            @Override
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                List<Barcode> barcodes = decodeRegion(image, areaRect, viewWidth, viewHeight);
+                mainExecutor.execute(() -> {
+                    ScanTrace.endAsync("stillCapture", traceCookie);
+                    capturing = false;
+                    if (barcodes != null && !barcodes.isEmpty()) {
+                        detections ++;
+                        callback.onStillDetected(barcodes);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NonNull ImageCaptureException e) {
+                Log.d(TAG, "Still capture failed: " + e.getMessage());
+                mainExecutor.execute(() -> {
+                    ScanTrace.endAsync("stillCapture", traceCookie);
+                    capturing = false;
+                });
+            }
+        }), mainExecutor);
+    }
+
+    /**
+     * Decode only the detection area of a JPEG still (runs on the capture executor)
+     */
+    private List<Barcode> decodeRegion(ImageProxy image, float[] viewRect, int viewWidth, int viewHeight) {
+        Bitmap crop = null;
+        try {
+            // 静止画自身の切り出し範囲と回転で対応付ける  map through the still's own crop rect and rotation
+            int rotation = image.getImageInfo().getRotationDegrees();
+            Rect cropRect = image.getCropRect();
+            FrameMetadata metadata = new FrameMetadata.Builder()
+                    .setWidth(cropRect.width())
+                    .setHeight(cropRect.height())
+                    .setRotation(rotation)
+                    .build();
+            int[] rect = new int[4];
+            metadata.mapViewRectToFrame(viewRect, viewWidth, viewHeight, rect);
+            rect[0] += cropRect.left;
+            rect[1] += cropRect.top;
+            rect[2] += cropRect.left;
+            rect[3] += cropRect.top;
+            crop = ImageUtils.decodeJpegRegion(image.getPlanes()[0].getBuffer(), rect);
+            if (crop == null) {
+                return null;
+            }
+            if (scanner == null) {
+                scanner = BarcodeScanning.getClient(scannerOptions);
+            }
+            return Tasks.await(scanner.process(InputImage.fromBitmap(crop, rotation)));
+        } catch (Exception e) {
+            Log.d(TAG, "Still decode failed: " + e.getMessage());
+            return null;
+        } finally {
+            if (crop != null) {
+                crop.recycle();
+            }
+            image.close();
+        }
+    }
+
+    public long getCaptures() {
+        return captures;
+    }
+
+    public long getDetections() {
+        return detections;
+    }
+
+    /**
+     * Close the detector client after the running decode; the next still recreates it
+     */
+    public void release() {
+        try {
+            executor.execute(() -> {
+                if (scanner != null) {
+                    scanner.close();
+                    scanner = null;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 既に閉じている  already closed
+        }
+    }
+
+    public void close() {
+        release();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+/**
+ * Grid of overlapping tiles over a frame, and the mapping of tile results to the full frame (tiling.*)
+ *
+ * Tiles have even offsets and sizes so NV21 chroma stays aligned. Has no Android dependency, so the
+ * layout is also used by the off-device detector benchmarks.
+ */
+public class TileLayout {
+
+    private final int grid;
+    private final float overlap;
+
+    private FrameMetadata metadata;
+    private int[][] rects = new int[0][];
+    private FrameMetadata tileMetadata;
+
+    /**
+     * @param grid    tiles per side
+     * @param overlap overlap between neighbouring tiles, relative to the tile size
+     */
+    public TileLayout(int grid, float overlap) {
+        this.grid = grid;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Lay out the tiles for a frame geometry
+     *
+     * @return true if the layout changed
+     */
+    public boolean update(FrameMetadata frame) {
+        if (metadata != null && metadata.isSameGeometry(frame.getWidth(), frame.getHeight(), frame.getRotation())) {
+            return false;
+        }
+        metadata = frame;
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int tileWidth = Math.min(width, even((int) Math.ceil(width / (float) grid * (1 + overlap))));
+        int tileHeight = Math.min(height, even((int) Math.ceil(height / (float) grid * (1 + overlap))));
+        rects = new int[grid * grid][];
+        tileMetadata = new FrameMetadata.Builder()
+                .setWidth(tileWidth)
+                .setHeight(tileHeight)
+                .setRotation(frame.getRotation())
+                .build();
+        for (int row = 0; row < grid; row ++) {
+            for (int col = 0; col < grid; col ++) {
+                // タイル中心を等間隔に置き、フレーム内に収める
+                int centerX = (2 * col + 1) * width / (2 * grid);
+                int centerY = (2 * row + 1) * height / (2 * grid);
+                int left = even(Math.max(0, Math.min(width - tileWidth, centerX - tileWidth / 2)));
+                int top = even(Math.max(0, Math.min(height - tileHeight, centerY - tileHeight / 2)));
+                rects[row * grid + col] = new int[]{left, top, left + tileWidth, top + tileHeight};
+            }
+        }
+        return true;
+    }
+
+    public int getTileCount() {
+        return rects.length;
+    }
+
+    /**
+     * @return {left, top, right, bottom} of the tile in frame coordinates
+     */
+    public int[] getRect(int tile) {
+        return rects[tile];
+    }
+
+    /**
+     * @return metadata of every tile (size and the frame rotation)
+     */
+    public FrameMetadata getTileMetadata() {
+        return tileMetadata;
+    }
+
+    /**
+     * Copy the luminance of a tile into a packed buffer
+     *
+     * @param nv21 frame
+     * @param out  tile buffer of at least tile width * height bytes
+     */
+    public void copyTile(int tile, byte[] nv21, byte[] out) {
+        int[] rect = rects[tile];
+        int frameWidth = metadata.getWidth();
+        int tileWidth = rect[2] - rect[0];
+        for (int y = rect[1], offset = 0; y < rect[3]; y ++, offset += tileWidth) {
+            System.arraycopy(nv21, y * frameWidth + rect[0], out, offset, tileWidth);
+        }
+    }
+
+    /**
+     * Map points from tile upright coordinates to full-frame upright coordinates, in place
+     *
+     * @param points x, y pairs as returned by the detector for the tile
+     */
+    public void mapToFullFrame(int tile, float[] points) {
+        tileMetadata.mapUprightToFrame(points);
+        int[] rect = rects[tile];
+        for (int i = 0; i < points.length; i += 2) {
+            points[i] += rect[0];
+            points[i + 1] += rect[1];
+        }
+        metadata.mapFrameToUpright(points);
+    }
+
+    private static int even(int value) {
+        return value & ~1;
+    }
+}
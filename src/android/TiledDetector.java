@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.barcode.BarcodeScanner;
+import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
+import com.google.mlkit.vision.barcode.BarcodeScanning;
+import com.google.mlkit.vision.barcode.common.Barcode;
+import com.google.mlkit.vision.common.InputImage;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tiled detection for small codes on high-resolution frames (tiling.*)
+ *
+ * Splits the frame into a grid of overlapping tiles and runs the detector on them in parallel
+ * on a bounded worker pool, one detector client per worker. Results are de-duplicated across tile
+ * overlaps. Remaining tiles are not started once {@code maxCodes} distinct codes are found.
+ * The returned barcodes keep the geometry of their tile; their full-frame (upright) bounding box
+ * and corner points are returned by {@link #getBoundingBox(Barcode)} and {@link #getCornerPoints(Barcode)}.
+ * Detector clients and tile buffers are created by the first frame and recreated after {@link #release()}.
+ */
+public class TiledDetector implements Closeable {
+
+    private final int maxCodes;
+    private final int threads;
+    private final BarcodeScannerOptions options;
+
+    // クライアントとタイルバッファは coordinator スレッドでのみ生成・解放する  owned by the coordinator thread
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+    private final ExecutorService workers;
+    private final BlockingQueue<BarcodeScanner> clients;
+    private final List<BarcodeScanner> allClients = new ArrayList<>();
+
+    // タイル配置とバッファはフレームサイズが変わるまで再利用する
+    private final TileLayout layout;
+    private byte[][] tileBuffers;
+    private volatile long bufferBytes = 0;
+
+    /** Full-frame geometry of the returned barcodes (ML Kit の Barcode は書き換えられない) */
+    private final Map<Barcode, Geometry> geometries = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static class Geometry {
+        final Rect box;
+        final Point[] corners;
+
+        Geometry(Rect box, Point[] corners) {
+            this.box = box;
+            this.corners = corners;
+        }
+    }
+
+    /**
+     * @param grid     tiles per side
+     * @param overlap  overlap between neighbouring tiles, relative to the tile size
+     * @param maxCodes number of distinct codes after which detection stops (0: all tiles)
+     * @param formats  Barcode.FORMAT_* flags
+     */
+    public TiledDetector(int grid, float overlap, int maxCodes, int formats) {
+        this.layout = new TileLayout(grid, overlap);
+        this.maxCodes = maxCodes;
+        int tiles = grid * grid;
+        threads = Math.max(1, Math.min(tiles, Runtime.getRuntime().availableProcessors() - 1));
+        workers = Executors.newFixedThreadPool(threads);
+        clients = new ArrayBlockingQueue<>(threads);
+        options = new BarcodeScannerOptions.Builder()
+                .setBarcodeFormats(formats)
+                .build();
+    }
+
+    /**
+     * Detect barcodes in all tiles of a frame
+     *
+     * The frame buffer must stay unchanged until the returned task completes.
+     *
+     * @param nv21     frame
+     * @param metadata frame metadata
+     * @return task completing on the main thread listeners with the merged barcodes
+     */
+    public Task<List<Barcode>> process(byte[] nv21, FrameMetadata metadata) {
+        boolean relayout = layout.update(metadata);
+        return Tasks.call(coordinator, () -> detect(nv21, relayout));
+    }
+
+    private void allocateBuffers() {
+        FrameMetadata tile = layout.getTileMetadata();
+        int tileSize = tile.getWidth() * tile.getHeight();
+        tileBuffers = new byte[layout.getTileCount()][];
+        for (int i = 0; i < tileBuffers.length; i ++) {
+            tileBuffers[i] = new byte[tileSize + 2 * (tileSize / 4)];
+            Arrays.fill(tileBuffers[i], tileSize, tileBuffers[i].length, (byte) 128);
+        }
+        bufferBytes = (long) tileBuffers.length * tileBuffers[0].length;
+    }
+
+    private List<Barcode> detect(byte[] nv21, boolean relayout) throws InterruptedException {
+        if (relayout || tileBuffers == null) {
+            allocateBuffers();
+        }
+        if (allClients.isEmpty()) {
+            for (int i = 0; i < threads; i ++) {
+                BarcodeScanner client = BarcodeScanning.getClient(options);
+                allClients.add(client);
+                clients.add(client);
+            }
+        }
+        CompletionService<List<Barcode>> completionService = new ExecutorCompletionService<>(workers);
+        int tiles = layout.getTileCount();
+        List<Future<List<Barcode>>> futures = new ArrayList<>(tiles);
+        for (int i = 0; i < tiles; i ++) {
+            final int tile = i;
+            futures.add(completionService.submit(() -> detectTile(tile, nv21)));
+        }
+
+        List<Barcode> merged = new ArrayList<>();
+        List<Rect> mergedBoxes = new ArrayList<>();
+        try {
+            for (int done = 0; done < tiles; done ++) {
+                Future<List<Barcode>> future = completionService.take();
+                int tile = futures.indexOf(future);
+                List<Barcode> barcodes;
+                try {
+                    barcodes = future.get();
+                } catch (ExecutionException e) {
+                    continue;
+                }
+                for (Barcode barcode : barcodes) {
+                    Rect box = toFullFrame(tile, barcode.getBoundingBox());
+                    if (!isDuplicate(barcode, box, merged, mergedBoxes)) {
+                        merged.add(barcode);
+                        mergedBoxes.add(box);
+                        geometries.put(barcode, new Geometry(box, toFullFrame(tile, barcode.getCornerPoints())));
+                    }
+                }
+                if (maxCodes > 0 && merged.size() >= maxCodes) {
+                    break;
+                }
+            }
+        } finally {
+            // 未着手のタイルは取り消し、実行中のタイルはバッファ再利用のため完了を待つ
+            for (Future<List<Barcode>> future : futures) {
+                if (!future.cancel(false) && !future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // result is no longer needed
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    private List<Barcode> detectTile(int tile, byte[] nv21) throws Exception {
+        byte[] buffer = tileBuffers[tile];
+        layout.copyTile(tile, nv21, buffer);
+        FrameMetadata tileMetadata = layout.getTileMetadata();
+        InputImage image = InputImage.fromByteArray(buffer, tileMetadata.getWidth(), tileMetadata.getHeight(),
+                tileMetadata.getRotation(), InputImage.IMAGE_FORMAT_NV21);
+        BarcodeScanner client = clients.take();
+        try {
+            return Tasks.await(client.process(image));
+        } finally {
+            clients.offer(client);
+        }
+    }
+
+    /**
+     * Map a bounding box from tile upright coordinates to full-frame upright coordinates
+     */
+    private Rect toFullFrame(int tile, Rect box) {
+        if (box == null) {
+            return null;
+        }
+        float[] points = {box.left, box.top, box.right, box.bottom};
+        layout.mapToFullFrame(tile, points);
+        return new Rect(
+                (int) Math.min(points[0], points[2]), (int) Math.min(points[1], points[3]),
+                (int) Math.max(points[0], points[2]), (int) Math.max(points[1], points[3]));
+    }
+
+    private Point[] toFullFrame(int tile, Point[] corners) {
+        if (corners == null) {
+            return null;
+        }
+        float[] points = new float[corners.length * 2];
+        for (int i = 0; i < corners.length; i ++) {
+            points[2 * i] = corners[i].x;
+            points[2 * i + 1] = corners[i].y;
+        }
+        layout.mapToFullFrame(tile, points);
+        Point[] mapped = new Point[corners.length];
+        for (int i = 0; i < corners.length; i ++) {
+            mapped[i] = new Point(Math.round(points[2 * i]), Math.round(points[2 * i + 1]));
+        }
+        return mapped;
+    }
+
+    /**
+     * @param barcode barcode returned by {@link #process}
+     * @return bounding box in full-frame upright coordinates (the coordinates of the single detector path)
+     */
+    public Rect getBoundingBox(Barcode barcode) {
+        Geometry geometry = geometries.get(barcode);
+        return geometry != null ? geometry.box : barcode.getBoundingBox();
+    }
+
+    /**
+     * @param barcode barcode returned by {@link #process}
+     * @return corner points in full-frame upright coordinates
+     */
+    public Point[] getCornerPoints(Barcode barcode) {
+        Geometry geometry = geometries.get(barcode);
+        return geometry != null ? geometry.corners : barcode.getCornerPoints();
+    }
+
+    /**
+     * Same value and format found at an overlapping position by a neighbouring tile
+     */
+    private static boolean isDuplicate(Barcode barcode, Rect box, List<Barcode> merged, List<Rect> boxes) {
+        for (int i = 0; i < merged.size(); i ++) {
+            Barcode other = merged.get(i);
+            if (other.getFormat() != barcode.getFormat()
+                    || !String.valueOf(other.getRawValue()).equals(String.valueOf(barcode.getRawValue()))) {
+                continue;
+            }
+            Rect otherBox = boxes.get(i);
+            if (box == null || otherBox == null || Rect.intersects(box, otherBox)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop workers and close detector clients
+     */
+    @Override
+    public void close() {
+        release();
+        coordinator.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * Close the detector clients and drop the tile buffers once the running frame is done;
+     * the next frame recreates them
+     */
+    public void release() {
+        try {
+            coordinator.execute(() -> {
+                for (BarcodeScanner client : allClients) {
+                    client.close();
+                }
+                allClients.clear();
+                clients.clear();
+                tileBuffers = null;
+                bufferBytes = 0;
+            });
+        } catch (RejectedExecutionException e) {
+            // 既に閉じている  already closed
+        }
+    }
+
+    /**
+     * @return bytes of the tile buffers
+     */
+    public long getBufferBytes() {
+        return bufferBytes;
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class BarcodeEncoderTest {
+
+    private static Result decode(int[] pixels, int width, int height, BarcodeFormat format) throws Exception {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singletonList(format));
+        hints.put(DecodeHintType.PURE_BARCODE, Boolean.TRUE);
+        RGBLuminanceSource source = new RGBLuminanceSource(width, height, pixels);
+        return new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(source)), hints);
+    }
+
+    @Test
+    public void renderedCodesDecodeToTheirText() throws Exception {
+        Object[][] cases = {
+                {BarcodeFormat.QR_CODE, "https://example.com/pair?token=8f14e45fceea167a5a36dedd4bea2543", 512, 512},
+                {BarcodeFormat.CODE_128, "PICK-2023-000123-A", 600, 200},
+                {BarcodeFormat.EAN_13, "4901234567894", 600, 300},
+                {BarcodeFormat.DATA_MATRIX, "(01)09501101530003(17)251231(10)AB-123", 400, 400},
+        };
+        BarcodeEncoder encoder = new BarcodeEncoder();
+        for (Object[] c : cases) {
+            BarcodeFormat format = (BarcodeFormat) c[0];
+            BitMatrix modules = encoder.encode((String) c[1], format, -1, "M");
+            int[] pixels = encoder.render(modules, (Integer) c[2], (Integer) c[3]);
+            assertEquals(format.toString(), c[1],
+                    decode(pixels, encoder.getWidth(), encoder.getHeight(), format).getText());
+        }
+    }
+
+    @Test
+    public void scalesByAnIntegerFactorAndCenters() throws Exception {
+        BarcodeEncoder encoder = new BarcodeEncoder();
+        BitMatrix modules = encoder.encode("centered", BarcodeFormat.QR_CODE, 0, "L");
+        int size = modules.getWidth();
+        int[] pixels = encoder.render(modules, 10 * size + 7, 10 * size + 7);
+        int width = encoder.getWidth();
+        assertEquals(10 * size + 7, width);
+        // 余白は左右に3画素と4画素  3 and 4 pixels of margin
+        assertEquals(BarcodeEncoder.WHITE, pixels[3 * width + 2]);
+        assertEquals(BarcodeEncoder.BLACK, pixels[3 * width + 3]);
+        assertEquals(BarcodeEncoder.BLACK, pixels[(3 + 10 * size - 1) * width + 3]);
+        assertEquals(BarcodeEncoder.WHITE, pixels[(3 + 10 * size) * width + 3]);
+    }
+
+    @Test
+    public void neverRendersSmallerThanTheMatrix() throws Exception {
+        BarcodeEncoder encoder = new BarcodeEncoder();
+        BitMatrix modules = encoder.encode("small", BarcodeFormat.QR_CODE, 4, "L");
+        encoder.render(modules, 1, 1);
+        assertEquals(modules.getWidth(), encoder.getWidth());
+        assertEquals(modules.getHeight(), encoder.getHeight());
+    }
+
+    @Test(expected = WriterException.class)
+    public void rejectsContentsTheFormatCannotEncode() throws Exception {
+        new BarcodeEncoder().encode("ABC", BarcodeFormat.EAN_13, -1, null);
+    }
+}
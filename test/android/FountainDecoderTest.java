@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FountainDecoderTest {
+
+    /**
+     * Feed chunks through their text form, dropping {@code loss} percent of them
+     *
+     * @return chunks used until the message was complete
+     */
+    private static int transfer(byte[] message, int blockSize, int loss, FountainDecoder decoder, Random random) {
+        FountainEncoder encoder = new FountainEncoder(message, blockSize, random.nextInt());
+        int used = 0;
+        for (int sent = 0; sent < encoder.getBlockCount() * 4 && !decoder.isComplete(); sent ++) {
+            String text = encoder.next().toText();
+            if (random.nextInt(100) >= loss) {
+                used ++;
+                decoder.add(FountainChunk.parse(text));
+            }
+        }
+        return used;
+    }
+
+    @Test
+    public void assemblesTheMessageDespiteLostChunks() throws Exception {
+        Random random = new Random(1);
+        for (int loss : new int[] {0, 30}) {
+            byte[] message = new byte[64 * 1024 + 123];
+            random.nextBytes(message);
+            FountainDecoder decoder = new FountainDecoder(message.length);
+            transfer(message, 600, loss, decoder, random);
+            assertTrue("loss " + loss, decoder.isComplete());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            decoder.writeMessage(out);
+            assertArrayEquals(message, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void chunkOverheadStaysLow() {
+        Random random = new Random(2);
+        byte[] message = new byte[256 * 1024];
+        random.nextBytes(message);
+        int blocks = (message.length + 599) / 600;
+        long used = 0;
+        int rounds = 5;
+        for (int i = 0; i < rounds; i ++) {
+            FountainDecoder decoder = new FountainDecoder(message.length);
+            used += transfer(message, 600, 30, decoder, random);
+            assertTrue(decoder.isComplete());
+        }
+        double chunksPerBlock = (double) used / rounds / blocks;
+        assertTrue("chunks per block " + chunksPerBlock, chunksPerBlock < 2);
+    }
+
+    @Test
+    public void rejectsMessagesOverTheLimit() {
+        byte[] message = new byte[10000];
+        FountainDecoder decoder = new FountainDecoder(message.length - 1);
+        assertFalse(decoder.add(new FountainEncoder(message, 600, 7).next()));
+        assertEquals(1, decoder.getChunksRejected());
+    }
+
+    @Test
+    public void rejectsBlockLayoutsOverTheLimits() {
+        FountainDecoder decoder = new FountainDecoder(1024 * 1024);
+        assertFalse(decoder.add(new FountainEncoder(new byte[1000], FountainDecoder.MIN_BLOCK_SIZE - 1, 7).next()));
+        assertFalse(decoder.add(new FountainEncoder(new byte[FountainDecoder.MAX_BLOCK_COUNT * 16 + 1], 16, 7).next()));
+        assertEquals(2, decoder.getChunksRejected());
+        assertEquals(0, decoder.getLength());
+        assertTrue(decoder.add(new FountainEncoder(new byte[FountainDecoder.MAX_BLOCK_COUNT * 16], 16, 7).next()));
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class Gs1ParserJsonTest {
+
+    private static JSONObject parse(String label) {
+        return Gs1Parser.parseToJson(label.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void typedLogisticsFields() throws Exception {
+        JSONObject result = parse("]C1" + "0109501101530003" + "17251231" + "10AB-123\u001d" + "21SN1" + "\u001d3103001250");
+        assertEquals("09501101530003", result.getString("gtin"));
+        assertEquals("2025-12-31", result.getString("expiry"));
+        assertEquals("AB-123", result.getString("batch"));
+        assertEquals("SN1", result.getString("serial"));
+        assertEquals(1.25, result.getDouble("netWeightKg"), 1e-9);
+    }
+
+    @Test
+    public void dayZeroIsTheLastDayOfTheMonth() throws Exception {
+        assertEquals("2024-02-29", parse("15240200").getString("bestBefore"));
+        assertEquals("2023-02-28", parse("11230200").getString("productionDate"));
+        assertEquals("2024-04-30", parse("17240400").getString("expiry"));
+    }
+
+    @Test
+    public void countsAndContent() throws Exception {
+        JSONObject result = parse("0209501101530003" + "3712\u001d" + "308");
+        assertEquals("09501101530003", result.getString("content"));
+        assertEquals(12, result.getLong("count"));
+        assertEquals(8, result.getLong("variableCount"));
+        assertEquals("106141411234567897", parse("00106141411234567897").getString("sscc"));
+    }
+
+    @Test
+    public void invalidDatesAreRejected() {
+        assertNull(parse("17251331"));
+        assertNull(parse("17251232"));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Label corpus: FNC1 / GS at the start, in the middle and at the end, fixed and variable-length AIs,
+ * and malformed input
+ */
+@RunWith(Parameterized.class)
+public class Gs1ParserTest {
+
+    /**
+     * Label strings with the expected elements ("AI=value" joined with "|"), or null if invalid.
+     * GS (0x1d) stands for FNC1, "]C1" / "]d2" / "]Q3" are symbology identifiers.
+     */
+    @Parameterized.Parameters(name = "{index}: {0}")
+    public static Collection<Object[]> corpus() {
+        return Arrays.asList(new Object[][] {
+                // GS1-128 / DataMatrix / QR ラベル  logistics and healthcare labels
+                {"]C1" + "0109501101530003" + "17251231" + "10AB-123", "01=09501101530003|17=251231|10=AB-123"},
+                {"]d2\u001d0109501101530003" + "10ABC123\u001d" + "21SN0001", "01=09501101530003|10=ABC123|21=SN0001"},
+                {"]Q3" + "0104912345678904" + "21XYZ\u001d", "01=04912345678904|21=XYZ"},
+                {"\u001d00106141411234567897", "00=106141411234567897"},
+                {"01095011015300033103001250" + "15240228", "01=09501101530003|3103=001250|15=240228"},
+                {"0209501101530003" + "3712\u001d" + "400PO-4711", "02=09501101530003|37=12|400=PO-4711"},
+                {"0109501101530003" + "308\u001d" + "10LOT7", "01=09501101530003|30=8|10=LOT7"},
+                {"0109501101530003" + "240CUST-PN-42\u001d\u001d" + "250SEC1", "01=09501101530003|240=CUST-PN-42|250=SEC1"},
+                {"4220392\u001d" + "7003231231\u001d" + "8008231231120000", "422=0392|7003=231231|8008=231231120000"},
+                {"0108012345678900" + "17260630" + "7103ABC", "01=08012345678900|17=260630|710=3ABC"},
+                {"0105601234567892" + "714PT1234567\u001d" + "21S1", "01=05601234567892|714=PT1234567|21=S1"},
+                {"0108012345678900" + "716IT0123456789\u001d", "01=08012345678900|716=IT0123456789"},
+                {"7240MED-1\u001d" + "8200https://example.com/p", "7240=MED-1|8200=https://example.com/p"},
+                {"11231231" + "13240101" + "21" + "12345678901234567890", "11=231231|13=240101|21=12345678901234567890"},
+                // 不正な入力  malformed input
+                {"", null},
+                {"]C1", null},
+                {"\u001d", null},
+                {"7", null},
+                {"0109501101530", null},
+                {"1725123", null},
+                {"10\u001d21X", null},
+                {"2612345", null},
+                {"A1234", null},
+                {"7173ABC", null},
+                {"0109501101530003" + "99" + "0123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890", null},
+        });
+    }
+
+    private final byte[] label;
+    private final String expected;
+
+    public Gs1ParserTest(String label, String expected) {
+        this.label = label.getBytes(StandardCharsets.ISO_8859_1);
+        this.expected = expected;
+    }
+
+    @Test
+    public void parsesTheExpectedElements() {
+        StringBuilder elements = new StringBuilder();
+        boolean valid = Gs1Parser.parse(label, (ai, aiLength, data, offset, length) -> {
+            if (elements.length() > 0) {
+                elements.append('|');
+            }
+            elements.append(String.format("%0" + aiLength + "d", ai)).append('=')
+                    .append(new String(data, offset, length, StandardCharsets.ISO_8859_1));
+        });
+        if (expected == null) {
+            assertFalse(valid);
+        } else {
+            assertTrue(valid);
+            assertEquals(expected, elements.toString());
+        }
+    }
+
+    @Test
+    public void parseToJsonKeepsEveryElement() throws Exception {
+        JSONObject result = Gs1Parser.parseToJson(label);
+        if (expected == null) {
+            assertNull(result);
+            return;
+        }
+        assertNotNull(result);
+        JSONObject elements = result.getJSONObject("elements");
+        String[] pairs = expected.split("\\|");
+        assertEquals(pairs.length, elements.length());
+        for (String pair : pairs) {
+            int separator = pair.indexOf('=');
+            assertEquals(pair.substring(separator + 1), elements.getString(pair.substring(0, separator)));
+        }
+    }
+}
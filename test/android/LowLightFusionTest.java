@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LowLightFusionTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int[] ROI = {WIDTH / 4, HEIGHT / 4, WIDTH * 3 / 4, HEIGHT * 3 / 4};
+
+    @Test
+    public void reducesNoiseOfShakingDarkFrames() {
+        for (boolean median : new boolean[] {false, true}) {
+            LowLightFusion fusion = new LowLightFusion(4, 60, median);
+            Random random = new Random(1);
+            double noisy = 0;
+            double fused = 0;
+            for (int i = 0; i < 40; i ++) {
+                int dx = random.nextInt(5) - 2;
+                int dy = random.nextInt(5) - 2;
+                byte[] frame = render(dx, dy, 12, random);
+                double before = rmse(frame, dx, dy);
+                if (fusion.fuse(frame, WIDTH, ROI) && i >= 8) {
+                    // 位置合わせ先は現在フレームなので現在フレームの位置で比較する
+                    noisy += before;
+                    fused += rmse(frame, dx, dy);
+                }
+            }
+            assertTrue("median " + median + ": " + noisy + " -> " + fused, fused < noisy * 0.75);
+        }
+    }
+
+    @Test
+    public void staysOffInBrightScenes() {
+        LowLightFusion fusion = new LowLightFusion();
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        Arrays.fill(frame, (byte) 200);
+        for (int i = 0; i < 10; i ++) {
+            assertFalse(fusion.fuse(frame, WIDTH, ROI));
+        }
+        assertFalse(fusion.isActive());
+    }
+
+    private static byte[] render(int dx, int dy, double noise, Random random) {
+        byte[] frame = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y ++) {
+            for (int x = 0; x < WIDTH; x ++) {
+                double value = pattern(x + dx, y + dy) + random.nextGaussian() * noise;
+                frame[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, Math.round(value)));
+            }
+        }
+        return frame;
+    }
+
+    private static int pattern(int x, int y) {
+        // 暗いランダムなモジュール (20 / 50)  dark random modules like a 2D code
+        int hash = (x / 6) * 73856093 ^ (y / 6) * 19349663;
+        return ((hash >>> 13) & 1) == 0 ? 20 : 50;
+    }
+
+    private static double rmse(byte[] frame, int dx, int dy) {
+        double sum = 0;
+        int n = 0;
+        for (int y = ROI[1]; y < ROI[3]; y ++) {
+            for (int x = ROI[0]; x < ROI[2]; x ++) {
+                double diff = (frame[y * WIDTH + x] & 0xff) - pattern(x + dx, y + dy);
+                sum += diff * diff;
+                n ++;
+            }
+        }
+        return Math.sqrt(sum / n);
+    }
+}
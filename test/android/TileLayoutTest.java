@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2023 Asial Corporation. All rights reserved.
+ */
+package io.monaca.plugin.barcodescanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TileLayoutTest {
+
+    @Test
+    public void mapsTileCentersToTheFullFrameAtEachRotation() {
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            FrameMetadata frame = new FrameMetadata.Builder().setWidth(1920).setHeight(1080).setRotation(rotation).build();
+            TileLayout layout = new TileLayout(3, 0.2f);
+            layout.update(frame);
+            FrameMetadata tile = layout.getTileMetadata();
+            for (int i = 0; i < layout.getTileCount(); i ++) {
+                int[] rect = layout.getRect(i);
+                float[] point = {tile.getUprightWidth() / 2f, tile.getUprightHeight() / 2f};
+                layout.mapToFullFrame(i, point);
+                float[] expected = {(rect[0] + rect[2]) / 2f, (rect[1] + rect[3]) / 2f};
+                frame.mapFrameToUpright(expected);
+                String message = "rotation " + rotation + " tile " + i;
+                assertEquals(message, expected[0], point[0], 1);
+                assertEquals(message, expected[1], point[1], 1);
+            }
+        }
+    }
+
+    @Test
+    public void tilesAreEvenAndCoverTheFrame() {
+        FrameMetadata frame = new FrameMetadata.Builder().setWidth(1280).setHeight(720).build();
+        TileLayout layout = new TileLayout(3, 0.2f);
+        layout.update(frame);
+        assertEquals(9, layout.getTileCount());
+        boolean[] covered = new boolean[1280 * 720];
+        for (int i = 0; i < layout.getTileCount(); i ++) {
+            int[] rect = layout.getRect(i);
+            for (int value : rect) {
+                assertEquals("tile " + i, 0, value % 2);
+            }
+            assertTrue(rect[0] >= 0 && rect[1] >= 0 && rect[2] <= 1280 && rect[3] <= 720);
+            for (int y = rect[1]; y < rect[3]; y ++) {
+                for (int x = rect[0]; x < rect[2]; x ++) {
+                    covered[y * 1280 + x] = true;
+                }
+            }
+        }
+        for (boolean pixel : covered) {
+            assertTrue(pixel);
+        }
+    }
+
+    @Test
+    public void relayoutOnlyOnGeometryChange() {
+        TileLayout layout = new TileLayout(2, 0.2f);
+        assertTrue(layout.update(new FrameMetadata.Builder().setWidth(640).setHeight(480).build()));
+        assertFalse(layout.update(new FrameMetadata.Builder().setWidth(640).setHeight(480).build()));
+        assertTrue(layout.update(new FrameMetadata.Builder().setWidth(640).setHeight(480).setRotation(90).build()));
+    }
+
+    @Test
+    public void copiesTheTileLuminance() {
+        int width = 64;
+        int height = 48;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i ++) {
+            nv21[i] = (byte) i;
+        }
+        TileLayout layout = new TileLayout(2, 0.2f);
+        layout.update(new FrameMetadata.Builder().setWidth(width).setHeight(height).build());
+        int[] rect = layout.getRect(3);
+        int tileWidth = rect[2] - rect[0];
+        byte[] tile = new byte[tileWidth * (rect[3] - rect[1])];
+        layout.copyTile(3, nv21, tile);
+        for (int y = rect[1]; y < rect[3]; y ++) {
+            for (int x = rect[0]; x < rect[2]; x ++) {
+                assertEquals(nv21[y * width + x], tile[(y - rect[1]) * tileWidth + x - rect[0]]);
+            }
+        }
+    }
+}
@@ -5,7 +5,50 @@
 const BarcodeScanner = function () {};
 
 BarcodeScanner.prototype.scan = function(success, fail, config) {
-  cordova.exec(success, fail, "MonacaBarcodeScannerPlugin", "scan", [config]);
+  const onFrame = config && config.frames && config.frames.onFrame;
+  if (config && config.frames && config.frames.enabled && typeof onFrame !== "function") {
+    // フレームを ack する受け手がいない  nothing would receive and acknowledge the frames
+    if (fail) {
+      fail("frames.onFrame is required with frames.enabled");
+    }
+    return;
+  }
+  cordova.exec(onFrame ? frameDispatcher(success, onFrame) : success, fail, "MonacaBarcodeScannerPlugin", "scan", [config]);
+};
+
+/**
+ * Route tapped frames (frames.enabled) to frames.onFrame and acknowledge each one when it has been
+ * processed, so the native side sends the next frame
+ */
+function frameDispatcher(success, onFrame) {
+  return function(result, data) {
+    if (!result.frame) {
+      success(result);
+      return;
+    }
+    Promise.resolve()
+      .then(() => onFrame(data, result.frame))
+      .catch((e) => console.error(e))
+      .then(() => cordova.exec(null, null, "MonacaBarcodeScannerPlugin", "ackFrame", [result.sessionId, result.frame.seq]));
+  };
+}
+
+BarcodeScanner.prototype.decode = function(success, fail, images, config) {
+  cordova.exec(success, fail, "MonacaBarcodeScannerPlugin", "decode", [images, config]);
+};
+
+BarcodeScanner.prototype.generate = function(success, fail, text, config) {
+  cordova.exec(success, fail, "MonacaBarcodeScannerPlugin", "generate", [text, config]);
+};
+
+BarcodeScanner.prototype.receive = function(success, fail, config) {
+  const options = Object.assign({}, config);
+  options.receive = Object.assign({}, options.receive, { enabled: true });
+  cordova.exec(success, fail, "MonacaBarcodeScannerPlugin", "scan", [options]);
+};
+
+BarcodeScanner.prototype.memoryUsage = function(success, fail) {
+  cordova.exec(success, fail, "MonacaBarcodeScannerPlugin", "memoryUsage", []);
 };
 
 monaca.BarcodeScanner = new BarcodeScanner();